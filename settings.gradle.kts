@@ -1,6 +1,6 @@
 rootProject.name = "Sonar"
 
-sequenceOf("api", "bukkit", "bungee", "common", "velocity").forEach {
+sequenceOf("api", "benchmarks", "bukkit", "bungee", "common", "velocity").forEach {
   val path = "sonar-$it"
   val project = ":$it"
 
@@ -53,7 +53,7 @@ public static final class AttackStatistics {
   public void checkIfUnderAttack() {
     final long joinsPerSecond = Sonar.get().getStatistics().getLoginsPerSecond();
     final int verifyingPlayers = Sonar.get().getFallback().getConnected().size();
-    final int queuedPlayers = Sonar.get().getFallback().getQueue().getPlayers().size();
+    final int queuedPlayers = Sonar.get().getFallback().getQueue().size();
     final int minPlayers = Sonar.get().getConfig().getMinPlayersForAttack();
 
     if (joinsPerSecond > minPlayers // Check the number of bots/joins per second.
@@ -156,6 +156,8 @@ public void loadValues() {
     // General settings
     logPlayerAddresses = generalConfig.getBoolean("general.log-player-addresses");
     maxOnlinePerIp = clamp(generalConfig.getInt("general.max-online-per-ip"), 1, 100);
+    maxConnectionsPerIp = clamp(generalConfig.getInt("general.max-connections-per-ip"), 0, 1000);
+    maxConnectionsPerSubnet = clamp(generalConfig.getInt("general.max-connections-per-subnet"), 0, 65536);
 
     // Attack tracker
     minPlayersForAttack = clamp(generalConfig.getInt("attack-tracker.min-players-for-attack"), 2, 1024);
@@ -172,9 +174,13 @@ public void loadValues() {
     database.username = generalConfig.getString("database.username");
     database.password = generalConfig.getString("database.password");
     database.maximumAge = clamp(generalConfig.getInt("database.maximum-age"), 1, 365);
+    database.fetchSize = clamp(generalConfig.getInt("database.fetch-size"), 1, 100000);
+    database.lazyLoading = generalConfig.getBoolean("database.lazy-loading");
+    database.lazyCacheSize = clamp(generalConfig.getInt("database.lazy-cache-size"), 1000, 10000000);
 
     // Queue
     queue.maxQueuePolls = clamp(generalConfig.getInt("queue.max-polls"), 1, 1000);
+    queue.minQueuePolls = clamp(generalConfig.getInt("queue.min-polls"), 1, queue.maxQueuePolls);
 
     // Verification
     verification.timing = Verification.Timing.valueOf(generalConfig.getString("verification.timing"));
@@ -235,12 +241,19 @@ public void loadValues() {
     verification.logConnections = generalConfig.getBoolean("verification.log-connections");
     verification.logDuringAttack = generalConfig.getBoolean("verification.log-during-attack");
     verification.debugXYZPositions = generalConfig.getBoolean("verification.debug-xyz-positions");
+    verification.recyclePackets = generalConfig.getBoolean("verification.recycle-packets");
     verification.readTimeout = clamp(generalConfig.getInt("verification.read-timeout"), 1000, 30000);
     verification.writeTimeout = clamp(generalConfig.getInt("verification.write-timeout"), 1000, 30000);
     verification.reconnectDelay = clamp(generalConfig.getInt("verification.rejoin-delay"), 0, 100000);
+    verification.maxSubnetAttempts = clamp(generalConfig.getInt("verification.max-subnet-attempts-per-minute"), 0, 60000);
+    verification.maxGlobalAttempts = clamp(generalConfig.getInt("verification.max-global-attempts-per-second"), 0, 100000);
     verification.rememberTime = clamp(generalConfig.getInt("verification.remember-time"), 0, 86400000);
     verification.blacklistTime = clamp(generalConfig.getInt("verification.blacklist-time"), 0, 86400000);
     verification.blacklistThreshold = clamp(generalConfig.getInt("verification.blacklist-threshold"), 0, 100);
+    verification.blacklistSubnetThreshold = clamp(generalConfig.getInt("verification.blacklist-subnet-threshold"), 0, 256);
+    verification.blacklistSubnetWindow = clamp(generalConfig.getInt("verification.blacklist-subnet-window"), 1000, 3600000);
+    verification.earlyBlacklistCheck = Verification.EarlyBlacklistCheck.valueOf(
+      generalConfig.getString("verification.blacklist-early-check").toUpperCase());
     verification.whitelistedProtocols.clear();
     verification.whitelistedProtocols.addAll(generalConfig.getIntList("verification.whitelisted-protocols"));
     verification.blacklistedProtocols.clear();
@@ -356,6 +369,10 @@ public String formatAddress(final InetAddress inetAddress) {
   @Getter
   private int maxOnlinePerIp;
   @Getter
+  private int maxConnectionsPerIp;
+  @Getter
+  private int maxConnectionsPerSubnet;
+  @Getter
   private int minPlayersForAttack;
   @Getter
   private int minAttackDuration;
@@ -372,6 +389,7 @@ public String formatAddress(final InetAddress inetAddress) {
   @NoArgsConstructor(access = AccessLevel.PRIVATE)
   public static final class Queue {
     private int maxQueuePolls;
+    private int minQueuePolls;
   }
 
   @Getter
@@ -389,6 +407,12 @@ public enum Timing {
       private final String displayName;
     }
 
+    public enum EarlyBlacklistCheck {
+      NONE,
+      CLOSE,
+      DISCONNECT
+    }
+
     private final Map map = new Map();
     private final Gravity gravity = new Gravity();
     private final Vehicle vehicle = new Vehicle();
@@ -456,6 +480,7 @@ public static final class Brand {
     private boolean logConnections;
     private boolean logDuringAttack;
     private boolean debugXYZPositions;
+    private boolean recyclePackets;
     private Pattern validNameRegex;
     private Pattern validLocaleRegex;
 
@@ -463,9 +488,14 @@ public static final class Brand {
     private int readTimeout;
     private int writeTimeout;
     private int reconnectDelay;
+    private int maxSubnetAttempts;
+    private int maxGlobalAttempts;
     private int rememberTime;
     private int blacklistTime;
     private int blacklistThreshold;
+    private int blacklistSubnetThreshold;
+    private int blacklistSubnetWindow;
+    private EarlyBlacklistCheck earlyBlacklistCheck;
     private final Collection<Integer> whitelistedProtocols = new HashSet<>(0);
     private final Collection<Integer> blacklistedProtocols = new HashSet<>(0);
 
@@ -487,7 +517,8 @@ public static final class Database {
     @Getter
     @RequiredArgsConstructor
     public enum Type {
-      MYSQL("jdbc:mysql://%s:%d/%s", new MysqlDatabaseTypeAdapter()),
+      // MySQL only respects the fetch size when using server-side cursors
+      MYSQL("jdbc:mysql://%s:%d/%s?useCursorFetch=true", new MysqlDatabaseTypeAdapter()),
       MARIADB("jdbc:mariadb://%s:%d/%s", new MariaDbDatabaseTypeAdapter()),
       H2("jdbc:h2:file:%s", new H2DatabaseTypeAdapter()),
       NONE(null, null);
@@ -504,6 +535,9 @@ public enum Type {
     private String username;
     private String password;
     private int maximumAge;
+    private int fetchSize;
+    private boolean lazyLoading;
+    private int lazyCacheSize;
   }
 
   @Getter
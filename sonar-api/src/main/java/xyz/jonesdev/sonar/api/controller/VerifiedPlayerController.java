@@ -17,11 +17,15 @@
 
 package xyz.jonesdev.sonar.api.controller;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.db.DatabaseType;
 import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
-import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
 import com.j256.ormlite.table.TableUtils;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
@@ -32,19 +36,57 @@
 import xyz.jonesdev.sonar.api.config.SonarConfiguration;
 import xyz.jonesdev.sonar.api.logger.LoggerWrapper;
 import xyz.jonesdev.sonar.api.model.VerifiedPlayer;
+import xyz.jonesdev.sonar.api.timer.SystemTimer;
 
 import java.io.File;
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class VerifiedPlayerController {
-  private static final ExecutorService DB_UPDATE_SERVICE = Executors.newSingleThreadExecutor();
+  private static final ScheduledExecutorService DB_UPDATE_SERVICE = Executors.newSingleThreadScheduledExecutor();
+  // Writes have their own thread (and pooled connection), so they never wait for the loading or pruning of the database
+  private static final ScheduledExecutorService FLUSH_SERVICE = Executors.newSingleThreadScheduledExecutor();
+  // Maximum number of lookups waiting for a thread; a longer queue couldn't be processed within the latency budget
+  private static final int MAX_PENDING_LOOKUPS = 128;
+  // Lookups must not wait for batched writes or the initial loading, so they have their own threads.
+  // Lookups are rejected if too many are pending, so a flood of new IP addresses can't pile up tasks.
+  private static final ExecutorService LOOKUP_SERVICE = new ThreadPoolExecutor(2, 2,
+    0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_PENDING_LOOKUPS), new ThreadPoolExecutor.AbortPolicy());
+
+  // Time in milliseconds between two flushes of the pending database writes
+  private static final long FLUSH_INTERVAL = 1000L;
+  // Number of IP addresses with pending writes after which we flush without waiting for the next interval
+  private static final int FLUSH_THRESHOLD = 512;
+  // Number of IP addresses with pending writes above which new verifications are slowed down
+  private static final int MAX_PENDING_WRITES = 65536;
+  // Time in milliseconds between two removals of outdated entries
+  private static final long PRUNE_INTERVAL = 60 * 60 * 1000L;
+  // Time in milliseconds between two progress messages while loading the database
+  private static final long PROGRESS_INTERVAL = 5000L;
+  // Maximum time in milliseconds a connection waits for a lookup
+  private static final long LOOKUP_BUDGET = 100L;
+  // Time after which cached lookups are refreshed, in case other servers use the same database
+  private static final Duration LOOKUP_EXPIRY = Duration.ofMinutes(10);
+  private static final UUID[] NO_UUIDS = new UUID[0];
 
   private static final LoggerWrapper LOGGER = new LoggerWrapper() {
 
@@ -64,10 +106,20 @@ public void error(final String message, final Object... args) {
     }
   };
 
-  private final Map<String, Collection<UUID>> cache = new ConcurrentHashMap<>(128);
+  private final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
   private @Nullable ConnectionSource connectionSource;
   private Dao<VerifiedPlayer, Integer> dao;
-  private QueryBuilder<VerifiedPlayer, Integer> queryBuilder;
+  // Pending database writes per IP address; coalesced and written in batches by the database thread
+  private final Map<String, PendingWrites> pendingWrites = new LinkedHashMap<>();
+  // Writes that are currently being written to the database; guarded by pendingWrites
+  private Map<String, PendingWrites> flushingWrites = Collections.emptyMap();
+  private String insertStatement, deleteStatement, selectStatement;
+  private @Nullable ScheduledFuture<?> flushTask, pruneTask;
+  // Whether all entries of the database have been loaded into the cache
+  private volatile boolean warmedUp;
+  // Only used in lazy mode: UUIDs of recently seen IP addresses; no UUIDs means that the IP address isn't verified
+  private @Nullable AsyncLoadingCache<InetAddress, UUID[]> lazyCache;
+  private final AtomicInteger lazySize = new AtomicInteger();
   @Getter
   private final @NotNull SonarConfiguration.Database.Type cachedDatabaseType;
 
@@ -109,7 +161,28 @@ public VerifiedPlayerController() {
       }
 
       dao = DaoManager.createDao(connectionSource, VerifiedPlayer.class);
-      queryBuilder = dao.queryBuilder();
+
+      // Prepare the statements for writing entries in batches
+      final DatabaseType databaseType = connectionSource.getDatabaseType();
+      final String table = escape(databaseType, dao.getTableName());
+      final String ipAddress = escape(databaseType, "ip_address");
+      insertStatement = "INSERT INTO " + table + " (" + ipAddress + ", " + escape(databaseType, "player_uuid")
+        + ", " + escape(databaseType, "timestamp") + ") VALUES (?, ?, ?)";
+      // Older versions stored IP addresses as typed in commands, so we also have to delete that form
+      deleteStatement = "DELETE FROM " + table + " WHERE " + ipAddress + " IN (?, ?)";
+      selectStatement = "SELECT " + ipAddress + ", " + escape(databaseType, "player_uuid")
+        + ", " + escape(databaseType, "timestamp") + " FROM " + table;
+      flushTask = FLUSH_SERVICE.scheduleWithFixedDelay(this::flush,
+        FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+
+      // Only look up IP addresses when they connect instead of loading the entire database
+      if (database.isLazyLoading()) {
+        lazyCache = Caffeine.newBuilder()
+          .maximumSize(database.getLazyCacheSize())
+          .expireAfterWrite(LOOKUP_EXPIRY)
+          .executor(LOOKUP_SERVICE)
+          .buildAsync(this::lookup);
+      }
 
       // Make sure to run the clean task and the caching task in the same thread
       // https://github.com/jonesdevelopment/sonar/issues/150
@@ -118,11 +191,24 @@ public VerifiedPlayerController() {
           // Make sure to clear all outdated entries first
           clearOld(database.getMaximumAge());
           // Add all entries from the database to the cache
-          dao.queryForAll().forEach(this::_add);
+          if (lazyCache == null) {
+            warmUp(database.getFetchSize());
+          }
         } catch (SQLException exception) {
           LOGGER.error("Error initializing database: {}", exception);
+        } finally {
+          warmedUp = true;
         }
       });
+
+      // Entries keep expiring while the server is running, so we have to remove them regularly
+      pruneTask = DB_UPDATE_SERVICE.scheduleWithFixedDelay(() -> {
+        try {
+          clearOld(database.getMaximumAge());
+        } catch (SQLException exception) {
+          LOGGER.error("Error trying to remove old entries: {}", exception);
+        }
+      }, PRUNE_INTERVAL, PRUNE_INTERVAL, TimeUnit.MILLISECONDS);
     } catch (SQLException exception) {
       LOGGER.error("Error setting up database: {}", exception);
     }
@@ -134,6 +220,21 @@ public VerifiedPlayerController() {
   public void close() {
     // The connection source will always be null if the database type is NONE.
     if (connectionSource != null) {
+      // Stop loading entries if we are still loading the database
+      warmedUp = true;
+      if (flushTask != null) {
+        flushTask.cancel(false);
+      }
+      if (pruneTask != null) {
+        pruneTask.cancel(false);
+      }
+      // Make sure to write all pending entries before closing the connection
+      try {
+        FLUSH_SERVICE.submit(this::flush).get();
+      } catch (Exception exception) {
+        LOGGER.error("Error writing pending entries: {}", exception);
+      }
+
       try {
         connectionSource.close();
       } catch (Exception exception) {
@@ -143,131 +244,475 @@ public void close() {
   }
 
   /**
-   * Clear all old entries using the given timestamp.
+   * Streams all entries of the database into the cache using a forward-only cursor,
+   * so we never hold more than one batch of rows in memory.
+   */
+  private void warmUp(final int fetchSize) throws SQLException {
+    final SystemTimer timer = new SystemTimer();
+    final SystemTimer progressTimer = new SystemTimer();
+    int rows = 0;
+
+    final DatabaseConnection databaseConnection = connectionSource.getReadOnlyConnection(dao.getTableName());
+    try {
+      final Connection connection = (Connection) databaseConnection.getUnderlyingConnection();
+      try (final PreparedStatement statement = connection.prepareStatement(selectStatement,
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+        statement.setFetchSize(fetchSize);
+        try (final ResultSet resultSet = statement.executeQuery()) {
+          // Stop loading entries if the cache has been cleared in the meantime
+          while (!warmedUp && resultSet.next()) {
+            final InetAddress inetAddress = VerifiedPlayerIndex.parse(resultSet.getString(1));
+            // Don't load entries that have been removed while we were loading
+            if (inetAddress != null && !isPendingRemoval(inetAddress.toString())) {
+              index.add(inetAddress, UUID.fromString(resultSet.getString(2)), resultSet.getTimestamp(3).getTime());
+            }
+            rows++;
+
+            if (progressTimer.elapsed(PROGRESS_INTERVAL)) {
+              progressTimer.reset();
+              LOGGER.info("Loaded {} verified players so far...", Sonar.DECIMAL_FORMAT.format(rows));
+            }
+          }
+        }
+      }
+    } finally {
+      connectionSource.releaseConnection(databaseConnection);
+    }
+
+    final long delay = Math.max(timer.delay(), 1L);
+    LOGGER.info("Loaded {} verified players in {}s ({} rows/s).", Sonar.DECIMAL_FORMAT.format(rows),
+      timer, Sonar.DECIMAL_FORMAT.format(rows * 1000L / delay));
+  }
+
+  /**
+   * Loads the UUIDs of an IP address using the index of the IP address column
+   */
+  private UUID @NotNull [] lookup(final @NotNull InetAddress inetAddress) throws SQLException {
+    final String key = inetAddress.toString();
+    // Entries that haven't been written to the database yet have to be part of the result as well.
+    // They are collected before asking the database, so we can't miss entries that are written in the meantime.
+    final Set<UUID> uuids = new LinkedHashSet<>(2);
+    boolean deleted = false;
+    synchronized (pendingWrites) {
+      for (final PendingWrites writes : new PendingWrites[] {flushingWrites.get(key), pendingWrites.get(key)}) {
+        if (writes != null) {
+          if (writes.delete) {
+            uuids.clear();
+            deleted = true;
+          }
+          uuids.addAll(writes.inserts.keySet());
+        }
+      }
+    }
+    // All entries in the database are outdated if the IP address is about to be deleted
+    if (!deleted) {
+      // Older versions stored IP addresses as typed in commands, so we have to look for both forms
+      final List<VerifiedPlayer> players = dao.queryBuilder()
+        .selectColumns("player_uuid")
+        .where().in("ip_address", key, legacyForm(key))
+        .query();
+      for (final VerifiedPlayer player : players) {
+        uuids.add(player.getPlayerUuid());
+      }
+    }
+    return uuids.toArray(NO_UUIDS);
+  }
+
+  /**
+   * @return Cached UUIDs of the IP address or null if they haven't been loaded (yet)
+   */
+  private UUID @Nullable [] getCached(final @NotNull InetAddress inetAddress) {
+    final CompletableFuture<UUID[]> future = lazyCache.getIfPresent(inetAddress);
+    return future != null && future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+  }
+
+  /**
+   * Loads the UUIDs of the IP address and waits for the result
+   */
+  private UUID @NotNull [] getBlocking(final @NotNull InetAddress inetAddress) {
+    try {
+      return lazyCache.get(inetAddress).join();
+    } catch (Exception exception) {
+      LOGGER.error("Error trying to look up entry: {}", exception);
+      return NO_UUIDS;
+    }
+  }
+
+  private static boolean contains(final UUID @NotNull [] uuids, final @NotNull UUID uuid) {
+    for (final UUID other : uuids) {
+      if (other.equals(uuid)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return Whether {@link #has(InetAddress, UUID)} might not know about all verified players
+   * (in lazy mode or while the cache is still being loaded), so {@link #hasAsync(InetAddress, UUID)}
+   * has to be used for players that aren't in the cache
+   */
+  public boolean needsLookup() {
+    return lazyCache != null || (!warmedUp && connectionSource != null);
+  }
+
+  /**
+   * Looks up the IP address and UUID in the database if they aren't cached (yet).
+   * The returned future completes with false if the lookup takes longer than the latency budget.
+   *
+   * @param inetAddress IP address
+   * @param uuid        UUID associated to the IP
+   * @return Future that completes with whether the IP and UUID are verified
+   */
+  public @NotNull CompletableFuture<Boolean> hasAsync(final @NotNull InetAddress inetAddress,
+                                                      final @NotNull UUID uuid) {
+    try {
+      return lookupAsync(inetAddress, uuid)
+        .exceptionally(throwable -> false)
+        // Don't let the player wait too long if the database is slow
+        .completeOnTimeout(false, LOOKUP_BUDGET, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException exception) {
+      // Too many lookups are pending; treat the player as unverified instead of waiting
+      return CompletableFuture.completedFuture(false);
+    }
+  }
+
+  private @NotNull CompletableFuture<Boolean> lookupAsync(final @NotNull InetAddress inetAddress,
+                                                         final @NotNull UUID uuid) {
+    if (lazyCache == null) {
+      final boolean cached = index.contains(inetAddress, uuid);
+      if (cached || warmedUp || connectionSource == null) {
+        return CompletableFuture.completedFuture(cached);
+      }
+      // We haven't loaded all entries yet, so we have to ask the database
+      return CompletableFuture.supplyAsync(() -> {
+        try {
+          return dao.queryBuilder().where()
+            .in("ip_address", inetAddress.toString(), legacyForm(inetAddress.toString()))
+            .and().eq("player_uuid", uuid)
+            .countOf() > 0;
+        } catch (SQLException exception) {
+          throw new CompletionException(exception);
+        }
+      }, LOOKUP_SERVICE);
+    }
+    return lazyCache.get(inetAddress).thenApply(uuids -> contains(uuids, uuid));
+  }
+
+
+  private boolean isPendingRemoval(final @NotNull String inetAddress) {
+    synchronized (pendingWrites) {
+      final PendingWrites writes = pendingWrites.get(inetAddress);
+      return writes != null && writes.delete;
+    }
+  }
+
+  /**
+   * Clear all old entries from the database and the cache using the given timestamp.
    */
   private void clearOld(final @Range(from = 1, to = 365) int maximumAge) throws SQLException {
     final long timestamp = Instant.now()
       .minus(maximumAge, ChronoUnit.DAYS)
       .getEpochSecond() * 1000L; // convert to ms
 
-    final List<VerifiedPlayer> oldEntries = queryBuilder.where()
-      .lt("timestamp", new Timestamp(timestamp))
-      .query();
+    // Remove all old entries using a single statement
+    final DeleteBuilder<VerifiedPlayer, Integer> deleteBuilder = dao.deleteBuilder();
+    deleteBuilder.where().lt("timestamp", new Timestamp(timestamp));
+    final int removed = deleteBuilder.delete();
+    // Make sure the cache doesn't keep growing on servers that are running for a long time
+    index.removeOlderThan(timestamp);
+    // We don't know how many players are verified in lazy mode, so we have to ask the database
+    if (lazyCache != null) {
+      lazySize.set((int) dao.countOf());
+    }
 
-    if (oldEntries != null) {
-      for (final VerifiedPlayer player : oldEntries) {
-        dao.delete(player);
-      }
-      LOGGER.info("Removed {} database entries older than {} days.",
-        oldEntries.size(), maximumAge);
+    if (removed > 0) {
+      LOGGER.info("Removed {} database entries older than {} days.", removed, maximumAge);
     }
   }
 
+  private static @NotNull String escape(final @NotNull DatabaseType databaseType, final @NotNull String name) {
+    final StringBuilder builder = new StringBuilder();
+    databaseType.appendEscapedEntityName(builder, name);
+    return builder.toString();
+  }
+
   /**
-   * First, remove the player from the local cache and then,
-   * secondly, asynchronously add the player to the database.
+   * Queues a database write for the IP address. All writes of the same IP address are coalesced,
+   * so only the last state of the IP address is written to the database.
    *
-   * @param inetAddress InetAddress of the VerifiedPlayer model
+   * @param inetAddress IP address of the player
+   * @param player      Player to insert or null to delete all entries of the IP address
    */
-  public void remove(final @NotNull String inetAddress) {
-    _remove(inetAddress);
+  private void enqueue(final @NotNull String inetAddress, final @Nullable VerifiedPlayer player) {
+    final int size;
+    synchronized (pendingWrites) {
+      // Never drop writes, even if the database can't keep up; isWriteBacklogged slows down verifications instead
+      PendingWrites writes = pendingWrites.get(inetAddress);
+      if (writes == null) {
+        writes = new PendingWrites();
+        pendingWrites.put(inetAddress, writes);
+      }
+      if (player == null) {
+        // Deleting the IP address makes all previous insertions obsolete
+        writes.delete = true;
+        writes.inserts.clear();
+      } else {
+        writes.inserts.put(player.getPlayerUuid(), player);
+      }
+      size = pendingWrites.size();
+    }
+    // Don't wait for the next interval if there are enough pending writes
+    if (size == FLUSH_THRESHOLD) {
+      FLUSH_SERVICE.execute(this::flush);
+    }
+  }
 
-    // Don't try to update the column if the database type is NONE
-    if (cachedDatabaseType == SonarConfiguration.Database.Type.NONE) {
-      return;
+  /**
+   * @return Whether the database can't keep up with the number of newly verified players
+   */
+  public boolean isWriteBacklogged() {
+    synchronized (pendingWrites) {
+      return pendingWrites.size() >= MAX_PENDING_WRITES;
     }
+  }
+
+  /**
+   * Queues writes that couldn't be written to the database again, so we can retry them with the next flush.
+   * Writes that have been queued in the meantime are newer, so they take precedence.
+   */
+  private void requeue(final @NotNull Map<String, PendingWrites> writes) {
+    synchronized (pendingWrites) {
+      for (final Map.Entry<String, PendingWrites> entry : writes.entrySet()) {
+        final PendingWrites newer = pendingWrites.get(entry.getKey());
+        if (newer == null) {
+          pendingWrites.put(entry.getKey(), entry.getValue());
+        } else if (!newer.delete) {
+          // The newer writes only add entries, so we can keep the older ones in front of them
+          final PendingWrites older = entry.getValue();
+          older.inserts.putAll(newer.inserts);
+          newer.delete = older.delete;
+          newer.inserts.clear();
+          newer.inserts.putAll(older.inserts);
+        }
+      }
+    }
+  }
 
-    DB_UPDATE_SERVICE.execute(() -> {
-      // We cannot throw a NullPointerException within the executor service
-      // because we want to handle the error instead of simply throwing an exception
-      if (connectionSource == null) {
+  /**
+   * Writes all pending entries to the database in a single transaction.
+   * This method must only be called by the flush thread.
+   */
+  private void flush() {
+    if (connectionSource == null) {
+      return;
+    }
+    final Map<String, PendingWrites> writes;
+    synchronized (pendingWrites) {
+      if (pendingWrites.isEmpty()) {
         return;
       }
+      writes = new LinkedHashMap<>(pendingWrites);
+      pendingWrites.clear();
+      flushingWrites = writes;
+    }
 
-      try {
-        final List<VerifiedPlayer> verifiedPlayer = queryBuilder.where()
-          .eq("ip_address", inetAddress)
-          .query();
+    // Only warn once per flush, so we don't flood the console during an attack
+    if (writes.size() >= MAX_PENDING_WRITES) {
+      LOGGER.warn("The database can't keep up with {} pending writes, slowing down verifications.", writes.size());
+    }
 
-        if (verifiedPlayer != null) {
-          for (final VerifiedPlayer player : verifiedPlayer) {
-            dao.delete(player);
+    try {
+      final DatabaseConnection databaseConnection = connectionSource.getReadWriteConnection(dao.getTableName());
+      try {
+        final Connection connection = (Connection) databaseConnection.getUnderlyingConnection();
+        final boolean autoCommit = connection.getAutoCommit();
+        try {
+          connection.setAutoCommit(false);
+          write(connection, writes, true);
+          connection.commit();
+        } catch (SQLException exception) {
+          connection.rollback();
+          // Retry every write on its own, so a single invalid entry doesn't discard the entire batch
+          connection.setAutoCommit(true);
+          final int failed = write(connection, writes, false);
+          if (failed > 0) {
+            LOGGER.error("Error trying to write {} entries: {}", failed, exception);
           }
+        } finally {
+          connection.setAutoCommit(autoCommit);
         }
-      } catch (SQLException exception) {
-        LOGGER.error("Error trying to remove entry: {}", exception);
+      } finally {
+        connectionSource.releaseConnection(databaseConnection);
+      }
+    } catch (Exception exception) {
+      LOGGER.error("Error trying to write entries, retrying later: {}", exception);
+      requeue(writes);
+    } finally {
+      synchronized (pendingWrites) {
+        flushingWrites = Collections.emptyMap();
+      }
+    }
+  }
+
+  /**
+   * @param batched Whether all writes should be executed as one JDBC batch
+   * @return Number of writes that failed (only counted if the writes aren't batched)
+   */
+  private int write(final @NotNull Connection connection,
+                    final @NotNull Map<String, PendingWrites> writes,
+                    final boolean batched) throws SQLException {
+    int failed = 0;
+    try (final PreparedStatement delete = connection.prepareStatement(deleteStatement);
+         final PreparedStatement insert = connection.prepareStatement(insertStatement)) {
+      // All deletions have to happen before the insertions since they might delete the same IP address
+      for (final Map.Entry<String, PendingWrites> entry : writes.entrySet()) {
+        if (entry.getValue().delete) {
+          delete.setString(1, entry.getKey());
+          delete.setString(2, legacyForm(entry.getKey()));
+          failed += execute(delete, batched);
+        }
+      }
+      for (final PendingWrites pending : writes.values()) {
+        for (final VerifiedPlayer player : pending.inserts.values()) {
+          insert.setString(1, player.getInetAddress());
+          insert.setString(2, player.getPlayerUuid().toString());
+          insert.setTimestamp(3, player.getTimestamp());
+          failed += execute(insert, batched);
+        }
+      }
+      if (batched) {
+        delete.executeBatch();
+        insert.executeBatch();
       }
-    });
+    }
+    return failed;
   }
 
   /**
-   * Locally remove the object from the cache
+   * @param inetAddress IP address in the form of InetAddress#toString
+   * @return IP address without the leading slash, as it was stored by older versions of the verified command
+   */
+  private static @NotNull String legacyForm(final @NotNull String inetAddress) {
+    return inetAddress.substring(inetAddress.lastIndexOf('/') + 1);
+  }
+
+  private static int execute(final @NotNull PreparedStatement statement, final boolean batched) throws SQLException {
+    if (batched) {
+      statement.addBatch();
+      return 0;
+    }
+    try {
+      statement.executeUpdate();
+      return 0;
+    } catch (SQLException exception) {
+      return 1;
+    }
+  }
+
+  /**
+   * First, remove the player from the local cache and then,
+   * secondly, queue the removal from the database.
    *
-   * @param inetAddress IP address of the player
+   * @param inetAddress InetAddress of the VerifiedPlayer model
    */
-  private void _remove(final @NotNull String inetAddress) {
-    cache.remove(inetAddress);
+  public void remove(final @NotNull String inetAddress) {
+    final InetAddress parsed = VerifiedPlayerIndex.parse(inetAddress);
+    if (parsed == null) {
+      return;
+    }
+    index.remove(parsed);
+    if (lazyCache != null) {
+      // Remember that the IP address isn't verified anymore, even before the entries are deleted
+      final UUID[] uuids = getCached(parsed);
+      lazySize.addAndGet(-(uuids != null ? uuids.length : 0));
+      lazyCache.put(parsed, CompletableFuture.completedFuture(NO_UUIDS));
+    }
+
+    // Don't try to update the column if the database type is NONE
+    if (cachedDatabaseType == SonarConfiguration.Database.Type.NONE) {
+      return;
+    }
+
+    // Entries are stored using InetAddress#toString
+    enqueue(parsed.toString(), null);
   }
 
   /**
    * First, cache the player locally and then,
-   * secondly, asynchronously add the player to the database.
+   * secondly, queue the insertion into the database.
    *
    * @param player VerifiedPlayer model
    */
   public void add(final @NotNull VerifiedPlayer player) {
-    _add(player);
+    final InetAddress inetAddress = VerifiedPlayerIndex.parse(player.getInetAddress());
+    if (inetAddress == null) {
+      return;
+    }
+    // Entries are stored using InetAddress#toString, so the same IP address always has the same key
+    final VerifiedPlayer normalized = inetAddress.toString().equals(player.getInetAddress()) ? player
+      : new VerifiedPlayer(inetAddress, player.getPlayerUuid(), player.getTimestamp().getTime());
+    _add(inetAddress, normalized);
 
     // Don't try to update the column if the database type is NONE
     if (cachedDatabaseType == SonarConfiguration.Database.Type.NONE) {
       return;
     }
 
-    DB_UPDATE_SERVICE.execute(() -> {
-      // We cannot throw a NullPointerException within the executor service
-      // because we want to handle the error instead of simply throwing an exception
-      if (connectionSource == null) {
-        return;
-      }
-
-      try {
-        dao.create(player);
-      } catch (SQLException exception) {
-        LOGGER.error("Error trying to add entry: {}", exception);
-      }
-    });
+    enqueue(inetAddress.toString(), normalized);
   }
 
   /**
    * Locally cache the object
    *
-   * @param player VerifiedPlayer model
+   * @param inetAddress Parsed IP address of the VerifiedPlayer model
+   * @param player      VerifiedPlayer model
    */
-  private void _add(final @NotNull VerifiedPlayer player) {
-    cache.computeIfAbsent(player.getInetAddress(), v -> new ArrayList<>())
-      .add(player.getPlayerUuid());
+  private void _add(final @NotNull InetAddress inetAddress, final @NotNull VerifiedPlayer player) {
+    if (lazyCache == null) {
+      index.add(inetAddress, player.getPlayerUuid(), player.getTimestamp().getTime());
+      return;
+    }
+    // The entry might not have been written to the database yet, so we have to update the cache ourselves
+    final CompletableFuture<UUID[]> future = lazyCache.getIfPresent(inetAddress);
+    if (future == null) {
+      // We don't know the other UUIDs of the IP address, so the next lookup has to load them.
+      // We can't tell whether the entry already exists in the database, so we don't count it either.
+      return;
+    }
+    // Also update lookups that are still running, since they might not see the new entry
+    lazyCache.put(inetAddress, future.thenApply(uuids -> {
+      if (contains(uuids, player.getPlayerUuid())) {
+        return uuids;
+      }
+      lazySize.incrementAndGet();
+      final UUID[] updated = Arrays.copyOf(uuids, uuids.length + 1);
+      updated[uuids.length] = player.getPlayerUuid();
+      return updated;
+    }));
   }
 
   /**
-   * Returns the number of verified IP addresses
+   * Returns the number of verified players
    *
    * @return Estimated size of the local cache
    */
-  public synchronized int estimatedSize() {
-    /*
-     * TODO: Work on this
-     * return MAP.values().stream()
-     *   .mapToInt(Collection::size)
-     *   .sum();
-     */
-    return cache.size();
+  public int estimatedSize() {
+    return lazyCache != null ? lazySize.get() : index.size();
   }
 
   /**
    * @return List of UUIDs associated with one IP address
    */
   public @Unmodifiable Collection<UUID> getUUIDs(final @NotNull String inetAddress) {
-    return cache.getOrDefault(inetAddress, Collections.emptyList());
+    final InetAddress parsed = VerifiedPlayerIndex.parse(inetAddress);
+    if (parsed == null) {
+      return Collections.emptyList();
+    }
+    if (lazyCache != null) {
+      return Collections.unmodifiableList(Arrays.asList(getBlocking(parsed)));
+    }
+    return Collections.unmodifiableList(index.get(parsed));
   }
 
   /**
@@ -275,29 +720,59 @@ public synchronized int estimatedSize() {
    * remove the table from the database.
    */
   public void clearAll() {
-    try {
-      cache.clear();
+    // There is nothing left to load, so stop loading entries from the database
+    warmedUp = true;
+    index.clear();
+    if (lazyCache != null) {
+      lazyCache.synchronous().invalidateAll();
+      lazySize.set(0);
+    }
 
-      // Only update the column if the database type is not NONE
-      if (cachedDatabaseType != SonarConfiguration.Database.Type.NONE) {
-        dao.deleteBuilder().delete();
+    // Only update the column if the database type is not NONE
+    if (cachedDatabaseType != SonarConfiguration.Database.Type.NONE) {
+      // None of the pending writes matter anymore
+      synchronized (pendingWrites) {
+        pendingWrites.clear();
       }
-    } catch (SQLException exception) {
-      LOGGER.error("Error trying to clear entries: {}", exception);
+      // Run this on the flush thread, so we don't race with a flush that is already running
+      FLUSH_SERVICE.execute(() -> {
+        try {
+          dao.deleteBuilder().delete();
+        } catch (SQLException exception) {
+          LOGGER.error("Error trying to clear entries: {}", exception);
+        }
+      });
     }
   }
 
+  /**
+   * Checks the local cache without allocating any objects (for IPv4 addresses)
+   *
+   * @param inetAddress IP address
+   * @param uuid        UUID associated to the IP
+   * @return Whether the local cache contains the IP and UUID
+   */
+  public boolean has(final @NotNull InetAddress inetAddress, final @NotNull UUID uuid) {
+    // Only check the UUIDs we already know in lazy mode; use hasAsync to look them up
+    if (lazyCache != null) {
+      final UUID[] uuids = getCached(inetAddress);
+      return uuids != null && contains(uuids, uuid);
+    }
+    // This is called on the event loop, so we never ask the database here; use hasAsync for that
+    return index.contains(inetAddress, uuid);
+  }
+
   /**
    * @param inetAddress IP address
    * @param uuid        UUID associated to the IP
    * @return Whether the local cache contains the IP and UUID
    */
   public boolean has(final @NotNull String inetAddress, final @NotNull UUID uuid) {
-    final Collection<UUID> got = cache.get(inetAddress);
-    if (got != null) {
-      return got.contains(uuid);
+    final InetAddress parsed = VerifiedPlayerIndex.parse(inetAddress);
+    if (parsed == null) {
+      return false;
     }
-    return false;
+    return lazyCache != null ? contains(getBlocking(parsed), uuid) : has(parsed, uuid);
   }
 
   /**
@@ -305,6 +780,20 @@ public boolean has(final @NotNull String inetAddress, final @NotNull UUID uuid)
    * @return Whether the local cache contains the IP
    */
   public boolean has(final @NotNull String inetAddress) {
-    return cache.containsKey(inetAddress);
+    final InetAddress parsed = VerifiedPlayerIndex.parse(inetAddress);
+    if (parsed == null) {
+      return false;
+    }
+    if (lazyCache != null) {
+      return getBlocking(parsed).length > 0;
+    }
+    return index.contains(parsed);
+  }
+
+  private static final class PendingWrites {
+    // Whether all existing entries of the IP address have to be deleted first
+    private boolean delete;
+    // Players of the IP address that have to be inserted
+    private final Map<UUID, VerifiedPlayer> inserts = new LinkedHashMap<>(2);
   }
 }
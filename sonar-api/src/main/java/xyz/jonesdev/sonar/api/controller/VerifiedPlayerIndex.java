@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+import static xyz.jonesdev.sonar.api.fallback.FallbackAddressKeys.*;
+
+/**
+ * Concurrent open-addressing set of verified (IP address, UUID) pairs.
+ * <br>
+ * IP addresses and UUIDs are stored as primitive keys inline in one long array,
+ * so there are no key objects, no collections per IP address and no nodes.
+ * Entries are hashed by their IP address only, which keeps all entries of an IP address
+ * in the same probe sequence. The table is split into segments, each guarded by a
+ * {@link StampedLock}: lookups are optimistic and don't lock at all, updates only lock a single segment.
+ */
+final class VerifiedPlayerIndex {
+  private static final int SEGMENT_BITS = 6;
+  private static final int SEGMENTS = 1 << SEGMENT_BITS;
+  private static final int MIN_CAPACITY = 16;
+  // IP address (high, low), UUID (most, least) and the timestamp of the verification
+  private static final int STRIDE = 5;
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+
+  VerifiedPlayerIndex() {
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  /**
+   * @return Whether the index contains the IP address and UUID
+   */
+  boolean contains(final @NotNull InetAddress inetAddress, final @NotNull UUID uuid) {
+    final long high = high(inetAddress), low = low(inetAddress);
+    final long hash = hash(high, low);
+    return segmentOf(hash).contains(high, low, uuid.getMostSignificantBits(),
+      uuid.getLeastSignificantBits(), true, (int) hash);
+  }
+
+  /**
+   * @return Whether the index contains any entry of the IP address
+   */
+  boolean contains(final @NotNull InetAddress inetAddress) {
+    final long high = high(inetAddress), low = low(inetAddress);
+    final long hash = hash(high, low);
+    return segmentOf(hash).contains(high, low, 0L, 0L, false, (int) hash);
+  }
+
+  /**
+   * @return UUIDs of all entries of the IP address
+   */
+  @NotNull List<UUID> get(final @NotNull InetAddress inetAddress) {
+    final long high = high(inetAddress), low = low(inetAddress);
+    final long hash = hash(high, low);
+    return segmentOf(hash).collect(high, low, (int) hash);
+  }
+
+  /**
+   * Adds the entry or updates the timestamp of the entry if it already exists
+   *
+   * @return Whether the entry has been added
+   */
+  boolean add(final @NotNull InetAddress inetAddress, final @NotNull UUID uuid, final long timestamp) {
+    final long high = high(inetAddress), low = low(inetAddress);
+    final long hash = hash(high, low);
+    // A timestamp of 0 marks an empty slot
+    return segmentOf(hash).add(high, low, uuid.getMostSignificantBits(),
+      uuid.getLeastSignificantBits(), Math.max(timestamp, 1L), (int) hash);
+  }
+
+  /**
+   * Removes all entries of the IP address
+   *
+   * @return Number of removed entries
+   */
+  int remove(final @NotNull InetAddress inetAddress) {
+    final long high = high(inetAddress), low = low(inetAddress);
+    final long hash = hash(high, low);
+    return segmentOf(hash).remove(high, low, (int) hash);
+  }
+
+  /**
+   * Removes all entries that have been verified before the given timestamp
+   *
+   * @return Number of removed entries
+   */
+  int removeOlderThan(final long timestamp) {
+    int removed = 0;
+    for (final Segment segment : segments) {
+      removed += segment.removeOlderThan(timestamp);
+    }
+    return removed;
+  }
+
+  /**
+   * @return Number of entries in this index
+   */
+  int size() {
+    int size = 0;
+    for (final Segment segment : segments) {
+      size += segment.size;
+    }
+    return size;
+  }
+
+  /**
+   * Removes all entries from this index
+   */
+  void clear() {
+    for (final Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  private @NotNull Segment segmentOf(final long hash) {
+    return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+  }
+
+  /**
+   * Parses IP addresses that have been stored using {@link InetAddress#toString()}
+   *
+   * @return IP address or null if the given string isn't an IP address
+   */
+  static @Nullable InetAddress parse(final @NotNull String raw) {
+    // Strip the (optional) hostname
+    final String address = raw.substring(raw.lastIndexOf('/') + 1);
+    boolean literal = !address.isEmpty(), ipv6 = false;
+    for (int i = 0; i < address.length() && literal; i++) {
+      final char c = address.charAt(i);
+      ipv6 |= c == ':';
+      literal = c == '.' || c == ':' || c == '%' || Character.digit(c, 16) != -1;
+    }
+    // Make sure we never resolve a hostname
+    if (!literal || (!ipv6 && address.indexOf('.') == -1)) {
+      return null;
+    }
+    try {
+      return InetAddress.getByName(address);
+    } catch (UnknownHostException exception) {
+      return null;
+    }
+  }
+
+  private static final class Table {
+    final long[] slots;
+    final int mask;
+
+    Table(final int capacity) {
+      this.slots = new long[capacity * STRIDE];
+      this.mask = capacity - 1;
+    }
+
+    int capacity() {
+      return mask + 1;
+    }
+
+    boolean isEmpty(final int index) {
+      return slots[index * STRIDE + 4] == 0L;
+    }
+
+    /**
+     * @return Index of the entry, or the bitwise complement of the first empty slot if there is no entry
+     */
+    int indexOf(final long high, final long low, final long most, final long least,
+                final boolean matchUuid, final int hash) {
+      // Make sure we don't loop forever if we read an inconsistent state during an optimistic read
+      for (int index = hash & mask, probes = 0; probes <= mask; index = (index + 1) & mask, probes++) {
+        final int offset = index * STRIDE;
+        if (slots[offset + 4] == 0L) {
+          return ~index;
+        }
+        if (slots[offset] == high && slots[offset + 1] == low
+          && (!matchUuid || (slots[offset + 2] == most && slots[offset + 3] == least))) {
+          return index;
+        }
+      }
+      return ~0;
+    }
+
+    int emptySlot(final int hash) {
+      int index = hash & mask;
+      while (!isEmpty(index)) {
+        index = (index + 1) & mask;
+      }
+      return index;
+    }
+  }
+
+  private static final class Segment {
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private volatile int size;
+
+    boolean contains(final long high, final long low, final long most, final long least,
+                     final boolean matchUuid, final int hash) {
+      long stamp = lock.tryOptimisticRead();
+      boolean found = table.indexOf(high, low, most, least, matchUuid, hash) >= 0;
+      if (!lock.validate(stamp)) {
+        // Someone modified the segment during our lookup, so we need to read it again
+        stamp = lock.readLock();
+        try {
+          found = table.indexOf(high, low, most, least, matchUuid, hash) >= 0;
+        } finally {
+          lock.unlockRead(stamp);
+        }
+      }
+      return found;
+    }
+
+    @NotNull List<UUID> collect(final long high, final long low, final int hash) {
+      final List<UUID> uuids = new ArrayList<>(2);
+      final long stamp = lock.readLock();
+      try {
+        final Table table = this.table;
+        // All entries of the IP address are part of the same probe sequence
+        for (int index = hash & table.mask; !table.isEmpty(index); index = (index + 1) & table.mask) {
+          final int offset = index * STRIDE;
+          if (table.slots[offset] == high && table.slots[offset + 1] == low) {
+            uuids.add(new UUID(table.slots[offset + 2], table.slots[offset + 3]));
+          }
+        }
+      } finally {
+        lock.unlockRead(stamp);
+      }
+      return uuids;
+    }
+
+    boolean add(final long high, final long low, final long most, final long least,
+                final long timestamp, final int hash) {
+      final long stamp = lock.writeLock();
+      try {
+        final Table table = this.table;
+        final int index = table.indexOf(high, low, most, least, true, hash);
+        if (index >= 0) {
+          table.slots[index * STRIDE + 4] = timestamp;
+          return false;
+        }
+        final int offset = ~index * STRIDE;
+        table.slots[offset] = high;
+        table.slots[offset + 1] = low;
+        table.slots[offset + 2] = most;
+        table.slots[offset + 3] = least;
+        table.slots[offset + 4] = timestamp;
+        // Keep the load factor below 0.75
+        if (++size > (table.capacity() >> 2) * 3) {
+          this.table = resize(table, table.capacity() << 1);
+        }
+        return true;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    int remove(final long high, final long low, final int hash) {
+      final long stamp = lock.writeLock();
+      try {
+        int removed = 0;
+        int index;
+        while ((index = this.table.indexOf(high, low, 0L, 0L, false, hash)) >= 0) {
+          delete(this.table, index);
+          removed++;
+        }
+        return removed;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    int removeOlderThan(final long timestamp) {
+      final long stamp = lock.writeLock();
+      try {
+        final Table table = this.table;
+        int remaining = 0;
+        for (int index = 0; index < table.capacity(); index++) {
+          if (!table.isEmpty(index) && table.slots[index * STRIDE + 4] >= timestamp) {
+            remaining++;
+          }
+        }
+        final int removed = size - remaining;
+        if (removed == 0) {
+          return 0;
+        }
+        // Rebuild the table instead of deleting the entries one by one
+        int capacity = MIN_CAPACITY;
+        while ((capacity >> 2) * 3 < remaining) {
+          capacity <<= 1;
+        }
+        final Table rebuilt = new Table(capacity);
+        for (int index = 0; index < table.capacity(); index++) {
+          final int offset = index * STRIDE;
+          if (!table.isEmpty(index) && table.slots[offset + 4] >= timestamp) {
+            final int slot = rebuilt.emptySlot((int) hash(table.slots[offset], table.slots[offset + 1]));
+            System.arraycopy(table.slots, offset, rebuilt.slots, slot * STRIDE, STRIDE);
+          }
+        }
+        this.table = rebuilt;
+        size = remaining;
+        return removed;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    void clear() {
+      final long stamp = lock.writeLock();
+      try {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    private void delete(final @NotNull Table table, final int index) {
+      final long[] slots = table.slots;
+      // Shift the following entries back instead of leaving a tombstone,
+      // so lookups never have to probe over removed entries.
+      int gap = index;
+      for (int next = (index + 1) & table.mask; !table.isEmpty(next); next = (next + 1) & table.mask) {
+        final int home = (int) hash(slots[next * STRIDE], slots[next * STRIDE + 1]) & table.mask;
+        // Only move the entry if its home slot doesn't lie between the gap and itself
+        if (((next - home) & table.mask) >= ((next - gap) & table.mask)) {
+          System.arraycopy(slots, next * STRIDE, slots, gap * STRIDE, STRIDE);
+          gap = next;
+        }
+      }
+      slots[gap * STRIDE + 4] = 0L;
+
+      // Give the memory back once the entries are gone
+      if (--size < table.capacity() >> 3 && table.capacity() > MIN_CAPACITY) {
+        this.table = resize(table, table.capacity() >> 1);
+      }
+    }
+
+    private static @NotNull Table resize(final @NotNull Table table, final int capacity) {
+      final Table resized = new Table(capacity);
+      for (int index = 0; index < table.capacity(); index++) {
+        if (!table.isEmpty(index)) {
+          final int offset = index * STRIDE;
+          final long high = table.slots[offset], low = table.slots[offset + 1];
+          final int slot = resized.emptySlot((int) hash(high, low));
+          System.arraycopy(table.slots, offset, resized.slots, slot * STRIDE, STRIDE);
+        }
+      }
+      return resized;
+    }
+  }
+}
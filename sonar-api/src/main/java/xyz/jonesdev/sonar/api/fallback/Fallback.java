@@ -17,37 +17,33 @@
 
 package xyz.jonesdev.sonar.api.fallback;
 
-import com.github.benmanes.caffeine.cache.Cache;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
-import lombok.Setter;
 import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.Sonar;
 import xyz.jonesdev.sonar.api.config.SonarConfiguration;
 import xyz.jonesdev.sonar.api.logger.LoggerWrapper;
 
-import java.net.InetAddress;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-
 @Getter
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public final class Fallback {
   public static final Fallback INSTANCE = new Fallback();
 
-  // Map of all players connected to the server in general
-  private final ConcurrentMap<InetAddress, Integer> online = new ConcurrentHashMap<>(128);
-  // Map of all connected IP addresses (used for fast checking)
-  private final ConcurrentMap<InetAddress, Byte> connected = new ConcurrentHashMap<>(128);
-  // Cache of all blacklisted IP addresses to ensure each entry can expire after the given time
-  @Setter
-  private Cache<InetAddress, Byte> blacklist;
-  @Setter
-  private long blacklistTime;
+  // Number of players connected to the server in general per IP address
+  private final FallbackAddressTable online = new FallbackAddressTable();
+  // All IP addresses that are currently being verified (used for fast checking)
+  private final FallbackAddressTable connected = new FallbackAddressTable();
+  // All blacklisted IP addresses; each entry expires after the configured blacklist time
+  private final FallbackBlacklist blacklist = new FallbackBlacklist();
 
   private final @NotNull FallbackQueue queue = new FallbackQueue();
   private final @NotNull FallbackRatelimiter ratelimiter = new FallbackRatelimiter();
+  private final @NotNull FallbackAdmissionController admission = new FallbackAdmissionController();
+  // Number of open connections per IP address and subnet
+  private final @NotNull FallbackConnectionLimiter connectionLimiter = new FallbackConnectionLimiter();
+  // Estimated number of recent connections per IP address and subnet
+  private final @NotNull FallbackSourceSketch sources = new FallbackSourceSketch();
 
   private final LoggerWrapper logger = new LoggerWrapper() {
 
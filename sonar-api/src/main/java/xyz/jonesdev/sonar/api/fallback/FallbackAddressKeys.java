@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+import lombok.experimental.UtilityClass;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Helpers for storing IP addresses as primitive keys.
+ * Every address is represented as two longs (the upper and lower 64 bits of its IPv6 form);
+ * IPv4 addresses are stored inside the IPv4-mapped IPv6 range (::ffff:0:0/96).
+ */
+@UtilityClass
+public class FallbackAddressKeys {
+  // ::ffff:0:0/96 (IPv4-mapped IPv6 addresses)
+  public final long IPV4_MAPPED_PREFIX = 0xFFFFL << 32;
+
+  /**
+   * @return Lower 64 bits of the IPv4-mapped form of the given IPv4 address
+   */
+  public long ipv4(final @NotNull Inet4Address inetAddress) {
+    // The hash code of an IPv4 address is its raw address,
+    // which saves us from cloning the address array.
+    return IPV4_MAPPED_PREFIX | (inetAddress.hashCode() & 0xFFFFFFFFL);
+  }
+
+  /**
+   * @return Upper 64 bits of the given address
+   */
+  public long high(final @NotNull InetAddress inetAddress) {
+    return inetAddress instanceof Inet4Address ? 0L : readLong(inetAddress.getAddress(), 0);
+  }
+
+  /**
+   * @return Lower 64 bits of the given address
+   */
+  public long low(final @NotNull InetAddress inetAddress) {
+    return inetAddress instanceof Inet4Address
+      ? ipv4((Inet4Address) inetAddress) : readLong(inetAddress.getAddress(), 8);
+  }
+
+  /**
+   * @return IP address of the given key; IPv4-mapped keys are returned as IPv4 addresses
+   */
+  public @NotNull InetAddress toInetAddress(final long high, final long low) {
+    final byte[] address = new byte[16];
+    for (int i = 0; i < 8; i++) {
+      address[i] = (byte) (high >>> (56 - (i << 3)));
+      address[i + 8] = (byte) (low >>> (56 - (i << 3)));
+    }
+    try {
+      return InetAddress.getByAddress(address);
+    } catch (UnknownHostException exception) {
+      // This can't happen since the address always has a valid length
+      throw new IllegalStateException(exception);
+    }
+  }
+
+  /**
+   * @param length Number of leading bits to keep (0-128)
+   * @return Upper 64 bits of the key with all bits after the given prefix length cleared
+   */
+  public long maskHigh(final long high, final int length) {
+    return length >= 64 ? high : length == 0 ? 0L : high & (-1L << (64 - length));
+  }
+
+  /**
+   * @param length Number of leading bits to keep (0-128)
+   * @return Lower 64 bits of the key with all bits after the given prefix length cleared
+   */
+  public long maskLow(final long low, final int length) {
+    return length <= 64 ? 0L : low & (-1L << (128 - length));
+  }
+
+  /**
+   * @return Big-endian long at the given offset of the array
+   */
+  public long readLong(final byte @NotNull [] bytes, final int offset) {
+    long value = 0L;
+    for (int i = offset; i < offset + 8; i++) {
+      value = (value << 8) | (bytes[i] & 0xFF);
+    }
+    return value;
+  }
+
+  /**
+   * Finalizer of MurmurHash3 to spread the bits of the address across the hash
+   *
+   * @return Well-distributed hash of the given key
+   */
+  public long hash(final long high, final long low) {
+    long hash = high * 0x9E3779B97F4A7C15L ^ low;
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
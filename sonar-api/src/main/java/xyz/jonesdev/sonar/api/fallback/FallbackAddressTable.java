@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.concurrent.locks.StampedLock;
+
+import static xyz.jonesdev.sonar.api.fallback.FallbackAddressKeys.*;
+
+/**
+ * Concurrent open-addressing table that maps IP addresses to positive int counters.
+ * <br>
+ * IP addresses are stored as primitive keys (see {@link FallbackAddressKeys}),
+ * so there are no key objects, no boxed values and no nodes.
+ * The table is split into segments, each guarded by a {@link StampedLock}:
+ * lookups are optimistic and don't lock at all, updates only lock a single segment.
+ * <br>
+ * A counter value of 0 means that there is no entry for the IP address.
+ */
+public final class FallbackAddressTable {
+  private static final int SEGMENT_BITS = 6;
+  private static final int SEGMENTS = 1 << SEGMENT_BITS;
+  private static final int MIN_CAPACITY = 16;
+
+  private static final int GET = 0, ADD = 1, SET = 2, REMOVE = 3;
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+
+  public FallbackAddressTable() {
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  /**
+   * @return Counter value of the IP address or 0 if there is no entry
+   */
+  public int get(final @NotNull InetAddress inetAddress) {
+    return apply(inetAddress, GET, 0);
+  }
+
+  /**
+   * @return Whether there is an entry for the IP address
+   */
+  public boolean contains(final @NotNull InetAddress inetAddress) {
+    return apply(inetAddress, GET, 0) != 0;
+  }
+
+  /**
+   * Increments the counter of the IP address and creates the entry if necessary
+   *
+   * @return New counter value of the IP address
+   */
+  public int increment(final @NotNull InetAddress inetAddress) {
+    return apply(inetAddress, ADD, 1);
+  }
+
+  /**
+   * Decrements the counter of the IP address and removes the entry once it reaches 0
+   *
+   * @return New counter value of the IP address
+   */
+  public int decrement(final @NotNull InetAddress inetAddress) {
+    return apply(inetAddress, ADD, -1);
+  }
+
+  /**
+   * Sets the counter of the IP address; values below 1 remove the entry
+   *
+   * @return Previous counter value of the IP address or 0 if there was no entry
+   */
+  public int put(final @NotNull InetAddress inetAddress, final int value) {
+    return apply(inetAddress, SET, value);
+  }
+
+  /**
+   * Removes the entry of the IP address
+   *
+   * @return Previous counter value of the IP address or 0 if there was no entry
+   */
+  public int remove(final @NotNull InetAddress inetAddress) {
+    return apply(inetAddress, SET, 0);
+  }
+
+  /**
+   * Removes the entry of the IP address if its counter has the expected value
+   *
+   * @return Whether the entry has been removed
+   */
+  public boolean remove(final @NotNull InetAddress inetAddress, final int expected) {
+    return apply(inetAddress, REMOVE, expected) != 0;
+  }
+
+  /**
+   * @return Number of IP addresses in this table
+   */
+  public int size() {
+    int size = 0;
+    for (final Segment segment : segments) {
+      size += segment.size;
+    }
+    return size;
+  }
+
+  /**
+   * Removes all entries from this table
+   */
+  public void clear() {
+    for (final Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  private int apply(final @NotNull InetAddress inetAddress, final int operation, final int operand) {
+    final long high, low;
+    if (inetAddress instanceof Inet4Address) {
+      high = 0L;
+      low = ipv4((Inet4Address) inetAddress);
+    } else {
+      final byte[] address = inetAddress.getAddress();
+      high = readLong(address, 0);
+      low = readLong(address, 8);
+    }
+    return apply(high, low, operation, operand);
+  }
+
+  // Used for keys that aren't IP addresses of clients (e.g. subnets)
+  int increment(final long high, final long low) {
+    return apply(high, low, ADD, 1);
+  }
+
+  int decrement(final long high, final long low) {
+    return apply(high, low, ADD, -1);
+  }
+
+  private int apply(final long high, final long low, final int operation, final int operand) {
+    final long hash = hash(high, low);
+    final Segment segment = segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    switch (operation) {
+      case GET:
+        return segment.get(high, low, (int) hash);
+      case ADD:
+        return segment.update(high, low, (int) hash, operand, true);
+      case REMOVE:
+        return segment.remove(high, low, (int) hash, operand) ? 1 : 0;
+      default:
+        return segment.update(high, low, (int) hash, operand, false);
+    }
+  }
+
+  private static final class Table {
+    // Two longs per slot (high, low) followed by the counter value of the slot
+    final long[] keys;
+    final int[] values;
+    final int mask;
+
+    Table(final int capacity) {
+      this.keys = new long[capacity << 1];
+      this.values = new int[capacity];
+      this.mask = capacity - 1;
+    }
+
+    int indexOf(final long high, final long low, final int hash) {
+      // Make sure we don't loop forever if we read an inconsistent state during an optimistic read
+      for (int index = hash & mask, probes = 0; probes <= mask; index = (index + 1) & mask, probes++) {
+        if (values[index] == 0) {
+          return ~index;
+        }
+        if (keys[index << 1] == high && keys[(index << 1) + 1] == low) {
+          return index;
+        }
+      }
+      return ~0;
+    }
+  }
+
+  private static final class Segment {
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private volatile int size;
+
+    int get(final long high, final long low, final int hash) {
+      long stamp = lock.tryOptimisticRead();
+      int value = read(high, low, hash);
+      if (!lock.validate(stamp)) {
+        // Someone modified the segment during our lookup, so we need to read it again
+        stamp = lock.readLock();
+        try {
+          value = read(high, low, hash);
+        } finally {
+          lock.unlockRead(stamp);
+        }
+      }
+      return value;
+    }
+
+    private int read(final long high, final long low, final int hash) {
+      final Table table = this.table;
+      final int index = table.indexOf(high, low, hash);
+      return index >= 0 ? table.values[index] : 0;
+    }
+
+    // Returns the new value when adding and the previous value when setting
+    int update(final long high, final long low, final int hash, final int operand, final boolean add) {
+      final long stamp = lock.writeLock();
+      try {
+        final Table table = this.table;
+        final int index = table.indexOf(high, low, hash);
+        if (index >= 0) {
+          final int previous = table.values[index];
+          final int value = add ? previous + operand : operand;
+          if (value > 0) {
+            table.values[index] = value;
+          } else {
+            delete(table, index);
+          }
+          return add ? Math.max(value, 0) : previous;
+        }
+        if (operand <= 0) {
+          return 0;
+        }
+        final int slot = ~index;
+        table.keys[slot << 1] = high;
+        table.keys[(slot << 1) + 1] = low;
+        table.values[slot] = operand;
+        // Keep the load factor below 0.75
+        if (++size > (table.values.length >> 2) * 3) {
+          this.table = resize(table, table.values.length << 1);
+        }
+        return add ? operand : 0;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    boolean remove(final long high, final long low, final int hash, final int expected) {
+      final long stamp = lock.writeLock();
+      try {
+        final Table table = this.table;
+        final int index = table.indexOf(high, low, hash);
+        if (index >= 0 && table.values[index] == expected) {
+          delete(table, index);
+          return true;
+        }
+        return false;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    void clear() {
+      final long stamp = lock.writeLock();
+      try {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    private void delete(final @NotNull Table table, final int index) {
+      // Shift the following entries back instead of leaving a tombstone,
+      // so lookups never have to probe over removed entries.
+      int gap = index;
+      for (int next = (index + 1) & table.mask; table.values[next] != 0; next = (next + 1) & table.mask) {
+        final long high = table.keys[next << 1], low = table.keys[(next << 1) + 1];
+        final int home = (int) hash(high, low) & table.mask;
+        // Only move the entry if its home slot doesn't lie between the gap and itself
+        if (((next - home) & table.mask) >= ((next - gap) & table.mask)) {
+          table.keys[gap << 1] = high;
+          table.keys[(gap << 1) + 1] = low;
+          table.values[gap] = table.values[next];
+          gap = next;
+        }
+      }
+      table.values[gap] = 0;
+
+      // Give the memory back once a flood is over
+      if (--size < table.values.length >> 3 && table.values.length > MIN_CAPACITY) {
+        this.table = resize(table, table.values.length >> 1);
+      }
+    }
+
+    private static @NotNull Table resize(final @NotNull Table table, final int capacity) {
+      final Table resized = new Table(capacity);
+      for (int index = 0; index < table.values.length; index++) {
+        final int value = table.values[index];
+        if (value != 0) {
+          final long high = table.keys[index << 1], low = table.keys[(index << 1) + 1];
+          final int slot = ~resized.indexOf(high, low, (int) hash(high, low));
+          resized.keys[slot << 1] = high;
+          resized.keys[(slot << 1) + 1] = low;
+          resized.values[slot] = value;
+        }
+      }
+      return resized;
+    }
+  }
+}
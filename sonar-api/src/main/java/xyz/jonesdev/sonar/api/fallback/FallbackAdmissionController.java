@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.config.SonarConfiguration;
+import xyz.jonesdev.sonar.api.controller.VerifiedPlayerController;
+import xyz.jonesdev.sonar.api.jvm.JVMProcessInformation;
+import xyz.jonesdev.sonar.api.statistics.SonarStatistics;
+
+/**
+ * Adjusts the number of verifications the queue starts per second to the load of the server.
+ * <br>
+ * The limit is increased additively every second while the server is healthy
+ * and decreased multiplicatively as soon as it is overloaded (AIMD), so Sonar backs off quickly
+ * when the server is saturated and slowly approaches the configured maximum again once it recovers.
+ * While most verifications fail, the limit is kept where it is, since the server isn't necessarily overloaded,
+ * but letting even more bots in would be pointless.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PROTECTED)
+public final class FallbackAdmissionController {
+  // Time in milliseconds between two updates of the limit
+  public static final long UPDATE_INTERVAL = 1000L;
+
+  // Factor the limit is multiplied with if the server is overloaded
+  private static final double DECREASE_FACTOR = 0.5;
+  // Number of updates it takes to get from the minimum to the maximum limit
+  private static final double INCREASE_STEPS = 20;
+  // Process CPU usage in percent above which the server is considered overloaded
+  private static final double MAX_CPU_USAGE = 80;
+  // Average number of pending tasks per event loop above which the event loops are considered overloaded
+  private static final int MAX_PENDING_TASKS = 64;
+  // Maximum number of seconds worth of started verifications that may be running at the same time
+  private static final int MAX_VERIFYING_SECONDS = 15;
+  // Minimum number of finished verifications before we take the success ratio into account
+  private static final int MIN_FINISHED_VERIFICATIONS = 10;
+  // Success ratio below which most verifications are considered to be bots
+  private static final double MIN_SUCCESS_RATIO = 0.2;
+
+  private static final int HISTORY_SIZE = 8;
+  private static final char[] HISTORY_BARS = {'▁', '▂', '▃', '▄', '▅', '▆', '▇', '█'};
+
+  // Current number of verifications per second; 0 until the first update
+  private volatile double limit;
+  // Past limits (oldest first) rendered as a small bar chart for the verbose
+  @Getter
+  private volatile @NotNull String history = "";
+  private final double[] limits = new double[HISTORY_SIZE];
+  private int historyIndex;
+  // Event loops of the server; we only know them once the first player connects
+  private volatile @Nullable EventLoopGroup eventLoopGroup;
+  private int lastSuccessful, lastFailed;
+
+  /**
+   * @return Number of verifications the queue may start per second
+   */
+  public double getLimit() {
+    final double limit = this.limit;
+    // Use the configured maximum until the first update
+    return limit > 0 ? limit : Sonar.get().getConfig().getQueue().getMaxQueuePolls();
+  }
+
+  /**
+   * Remembers the event loops of the server, so we can check how busy they are
+   *
+   * @param eventLoop Event loop of any connection
+   */
+  public void track(final @NotNull EventLoop eventLoop) {
+    if (eventLoopGroup == null) {
+      eventLoopGroup = eventLoop.parent();
+    }
+  }
+
+  /**
+   * Updates the limit based on the current load of the server.
+   * This method is called every {@link #UPDATE_INTERVAL} milliseconds and must never be called concurrently.
+   */
+  public void update() {
+    final SonarConfiguration.Queue config = Sonar.get().getConfig().getQueue();
+    final double min = config.getMinQueuePolls(), max = config.getMaxQueuePolls();
+
+    // Always update the verification counters, so we only look at the most recent verifications
+    final boolean mostlyBots = isMostlyBots();
+    double limit = getLimit();
+    if (isOverloaded(limit)) {
+      limit *= DECREASE_FACTOR;
+    } else if (!mostlyBots) {
+      limit += Math.max((max - min) / INCREASE_STEPS, 1);
+    }
+    // The configuration might have been reloaded, so we always have to clamp the limit
+    limit = Math.max(min, Math.min(max, limit));
+    this.limit = limit;
+
+    limits[historyIndex] = limit;
+    historyIndex = (historyIndex + 1) % HISTORY_SIZE;
+    history = renderHistory(min, max);
+  }
+
+  private boolean isOverloaded(final double limit) {
+    // The process is using most of the available CPU time
+    if (JVMProcessInformation.getProcessCPUUsage() > MAX_CPU_USAGE) {
+      return true;
+    }
+    // The event loops cannot keep up with their tasks
+    if (getAveragePendingTasks() > MAX_PENDING_TASKS) {
+      return true;
+    }
+    // The database cannot keep up with writing the newly verified players
+    final VerifiedPlayerController verifiedPlayers = Sonar.get().getVerifiedPlayerController();
+    if (verifiedPlayers != null && verifiedPlayers.isWriteBacklogged()) {
+      return true;
+    }
+    // Verifications are piling up faster than they finish
+    return Sonar.get().getFallback().getConnected().size() > limit * MAX_VERIFYING_SECONDS;
+  }
+
+  private boolean isMostlyBots() {
+    final SonarStatistics statistics = Sonar.get().getStatistics();
+    final int successful = statistics.getTotalSuccessfulVerifications() - lastSuccessful;
+    final int failed = statistics.getTotalFailedVerifications() - lastFailed;
+    lastSuccessful += successful;
+    lastFailed += failed;
+
+    // Most of the recently started verifications failed, which means that we are mostly verifying bots.
+    // Failed verifications are cheap, so this alone is no reason to slow down the queue.
+    final int finished = successful + failed;
+    return finished >= MIN_FINISHED_VERIFICATIONS && successful < finished * MIN_SUCCESS_RATIO;
+  }
+
+  private int getAveragePendingTasks() {
+    final EventLoopGroup eventLoopGroup = this.eventLoopGroup;
+    if (eventLoopGroup == null) {
+      return 0;
+    }
+    int pendingTasks = 0, eventLoops = 0;
+    for (final EventExecutor executor : eventLoopGroup) {
+      if (executor instanceof SingleThreadEventExecutor) {
+        pendingTasks += ((SingleThreadEventExecutor) executor).pendingTasks();
+        eventLoops++;
+      }
+    }
+    return eventLoops == 0 ? 0 : pendingTasks / eventLoops;
+  }
+
+  private @NotNull String renderHistory(final double min, final double max) {
+    final StringBuilder builder = new StringBuilder(HISTORY_SIZE);
+    for (int i = 0; i < HISTORY_SIZE; i++) {
+      final double limit = limits[(historyIndex + i) % HISTORY_SIZE];
+      // Skip entries we don't have a value for yet
+      if (limit <= 0) {
+        continue;
+      }
+      final double fraction = max > min ? (Math.min(limit, max) - min) / (max - min) : 1;
+      builder.append(HISTORY_BARS[(int) Math.round(Math.max(fraction, 0) * (HISTORY_BARS.length - 1))]);
+    }
+    return builder.toString();
+  }
+}
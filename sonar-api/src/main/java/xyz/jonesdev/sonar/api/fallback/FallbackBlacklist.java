@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongBinaryOperator;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+import static xyz.jonesdev.sonar.api.fallback.FallbackAddressKeys.*;
+
+/**
+ * Blacklist of IP addresses where every entry expires after a given time.
+ * <br>
+ * IP addresses are stored as primitive keys (see {@link FallbackAddressKeys}) in a
+ * {@link FallbackExpiringTable} with the expiry deadline of every entry as its value.
+ * Expired entries are treated as absent and are only swept when a table needs to grow
+ * or when {@link #cleanUp()} finds a table that contains expired entries.
+ * <br>
+ * Entire subnets (CIDR prefixes) are stored in a separate radix trie. If too many IP addresses
+ * of the same /24 (IPv4) or /48 (IPv6) subnet are blacklisted within a short time frame,
+ * the entire subnet is blacklisted automatically.
+ * <br>
+ * The blacklist can be saved to and loaded from a snapshot file,
+ * so it survives restarts. Deadlines are wall-clock times, so they stay valid across restarts.
+ */
+public final class FallbackBlacklist {
+  // Prefix lengths (in bits of the IPv6 form) used for automatically blacklisting subnets
+  private static final int IPV4_SUBNET = 96 + 24;
+  private static final int IPV6_SUBNET = 48;
+
+  private static final LongBinaryOperator SET_DEADLINE = (current, deadline) -> deadline;
+  private static final LongBinaryOperator EXPIRE = (current, ignored) -> 0L;
+  private static final LongBinaryOperator KEEP_LATEST = Math::max;
+
+  // Snapshot layout: magic, number of entries, then fixed-size entries (high, low, deadline, prefix length)
+  private static final int SNAPSHOT_MAGIC = 0x534E424C;
+  private static final int SNAPSHOT_HEADER = 8;
+  private static final int SNAPSHOT_ENTRY = 32;
+  // Number of bytes written to the snapshot file at once
+  private static final int SNAPSHOT_BUFFER = SNAPSHOT_ENTRY << 11;
+
+  private final FallbackExpiringTable addresses = new FallbackExpiringTable();
+  // Time in milliseconds after which entries expire
+  @Getter
+  @Setter
+  private volatile long expiry;
+  // Number of blacklisted IP addresses of the same subnet after which the subnet is blacklisted
+  @Getter
+  @Setter
+  private volatile int subnetThreshold;
+  // Time frame in milliseconds in which the blacklisted IP addresses of a subnet are counted
+  @Getter
+  @Setter
+  private volatile long subnetWindow;
+
+  private final FallbackPrefixTrie prefixes = new FallbackPrefixTrie();
+  private final FallbackAddressTable subnetCounts = new FallbackAddressTable();
+  private final AtomicLong subnetWindowStart = new AtomicLong();
+
+  /**
+   * @return Whether the IP address or any subnet containing it is blacklisted
+   */
+  public boolean containsKey(final @NotNull InetAddress inetAddress) {
+    final long high = high(inetAddress), low = low(inetAddress);
+    final long now = System.currentTimeMillis();
+    return addresses.get(high, low) > now || prefixes.contains(high, low, now);
+  }
+
+  /**
+   * @param inetAddress  Any IP address of the subnet
+   * @param prefixLength Prefix length of the subnet in CIDR notation
+   * @return Whether exactly this subnet is blacklisted
+   */
+  public boolean containsKey(final @NotNull InetAddress inetAddress, final int prefixLength) {
+    final int length = toTrieLength(inetAddress, prefixLength);
+    if (length == 128) {
+      return addresses.get(high(inetAddress), low(inetAddress)) > System.currentTimeMillis();
+    }
+    return prefixes.deadline(high(inetAddress), low(inetAddress), length) > System.currentTimeMillis();
+  }
+
+  /**
+   * Blacklists the IP address or resets the expiry of an existing entry
+   */
+  public void put(final @NotNull InetAddress inetAddress) {
+    final long high = high(inetAddress), low = low(inetAddress);
+    final long now = System.currentTimeMillis();
+    final long previous = addresses.getAndUpdate(high, low, SET_DEADLINE, now + expiry);
+
+    // Only count IP addresses that weren't blacklisted yet, so the same IP address
+    // getting blacklisted over and over again can't blacklist its entire subnet
+    if (previous <= now && subnetThreshold > 0) {
+      countSubnet(high, low, inetAddress instanceof Inet4Address ? IPV4_SUBNET : IPV6_SUBNET, now);
+    }
+  }
+
+  /**
+   * Blacklists all IP addresses of the subnet or resets the expiry of an existing entry
+   *
+   * @param inetAddress  Any IP address of the subnet
+   * @param prefixLength Prefix length of the subnet in CIDR notation
+   */
+  public void put(final @NotNull InetAddress inetAddress, final int prefixLength) {
+    final int length = toTrieLength(inetAddress, prefixLength);
+    if (length == 128) {
+      put(inetAddress);
+      return;
+    }
+    prefixes.put(high(inetAddress), low(inetAddress), length, System.currentTimeMillis() + expiry);
+  }
+
+  private void countSubnet(final long high, final long low, final int length, final long now) {
+    resetSubnetCounts(now);
+    final long subnetHigh = maskHigh(high, length);
+    final long subnetLow = maskLow(low, length);
+    if (subnetCounts.increment(subnetHigh, subnetLow) >= subnetThreshold) {
+      prefixes.put(subnetHigh, subnetLow, length, now + expiry);
+    }
+  }
+
+  // We count the blacklisted IP addresses of every subnet in fixed time frames
+  private void resetSubnetCounts(final long now) {
+    final long windowStart = subnetWindowStart.get();
+    // Only the thread that starts the new time frame clears the counts
+    if (now - windowStart >= subnetWindow && subnetWindowStart.compareAndSet(windowStart, now)) {
+      subnetCounts.clear();
+    }
+  }
+
+  private static int toTrieLength(final @NotNull InetAddress inetAddress, final int prefixLength) {
+    final int maximum = inetAddress instanceof Inet4Address ? 32 : 128;
+    if (prefixLength < 0 || prefixLength > maximum) {
+      throw new IllegalArgumentException("Invalid prefix length " + prefixLength);
+    }
+    return prefixLength + 128 - maximum;
+  }
+
+  /**
+   * Removes the IP address from the blacklist
+   */
+  public void invalidate(final @NotNull InetAddress inetAddress) {
+    // Let the entry expire, so it is swept the next time we clean up
+    addresses.getAndUpdate(high(inetAddress), low(inetAddress), EXPIRE, 0L);
+  }
+
+  /**
+   * Removes the subnet from the blacklist
+   *
+   * @param inetAddress  Any IP address of the subnet
+   * @param prefixLength Prefix length of the subnet in CIDR notation
+   */
+  public void invalidate(final @NotNull InetAddress inetAddress, final int prefixLength) {
+    final int length = toTrieLength(inetAddress, prefixLength);
+    if (length == 128) {
+      invalidate(inetAddress);
+      return;
+    }
+    prefixes.remove(high(inetAddress), low(inetAddress), length);
+  }
+
+  /**
+   * Removes all IP addresses and subnets from the blacklist
+   */
+  public void invalidateAll() {
+    addresses.clear();
+    prefixes.clear();
+    subnetCounts.clear();
+  }
+
+  /**
+   * @return Number of blacklisted IP addresses and subnets,
+   * including expired entries that haven't been swept yet
+   */
+  public long estimatedSize() {
+    return addresses.size() + prefixes.size();
+  }
+
+  /**
+   * Writes all blacklisted IP addresses and subnets that haven't expired yet to the snapshot file.
+   * The snapshot is written to a temporary file first, which then replaces the old snapshot,
+   * so there is always a complete snapshot on disk even if the server crashes while saving.
+   *
+   * @return Number of saved entries
+   */
+  public int save(final @NotNull Path path) throws IOException {
+    final long now = System.currentTimeMillis();
+    final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    final int entries;
+    try (final FileChannel channel = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+      final SnapshotWriter writer = new SnapshotWriter(channel, now);
+      try {
+        addresses.forEach((high, low, deadline) -> writer.accept(high, low, 128, deadline));
+        prefixes.forEach(writer);
+      } catch (UncheckedIOException exception) {
+        throw exception.getCause();
+      }
+      entries = writer.finish();
+    }
+    Files.move(temporary, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    return entries;
+  }
+
+  /**
+   * Adds all entries of the snapshot file that haven't expired yet to the blacklist
+   *
+   * @return Number of loaded entries
+   */
+  public int load(final @NotNull Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return 0;
+    }
+    final long size = Files.size(path);
+    if (size < SNAPSHOT_HEADER) {
+      return 0;
+    }
+    try (final DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      // The file is not a snapshot of the blacklist
+      if (input.readInt() != SNAPSHOT_MAGIC) {
+        return 0;
+      }
+      final int entries = input.readInt();
+      if (entries < 0 || SNAPSHOT_HEADER + (long) entries * SNAPSHOT_ENTRY > size) {
+        throw new IOException("Invalid number of entries: " + entries);
+      }
+
+      final long now = System.currentTimeMillis();
+      int loaded = 0;
+      for (int i = 0; i < entries; i++) {
+        final long high = input.readLong(), low = input.readLong(), deadline = input.readLong();
+        final int length = input.readInt();
+        input.readInt();
+        // Drop all entries that have expired while the server was offline
+        if (deadline <= now || length < 0 || length > 128) {
+          continue;
+        }
+        if (length == 128) {
+          addresses.getAndUpdate(high, low, KEEP_LATEST, deadline);
+        } else if (prefixes.deadline(high, low, length) < deadline) {
+          prefixes.put(high, low, length, deadline);
+        }
+        loaded++;
+      }
+      return loaded;
+    }
+  }
+
+  // Writes the entries of a snapshot in chunks, so we don't need to know the number of entries in advance
+  private static final class SnapshotWriter implements FallbackPrefixTrie.Visitor {
+    private static final int MAX_ENTRIES = (Integer.MAX_VALUE - SNAPSHOT_HEADER) / SNAPSHOT_ENTRY;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_BUFFER);
+    private final FileChannel channel;
+    private final long now;
+    private int entries;
+
+    SnapshotWriter(final @NotNull FileChannel channel, final long now) {
+      this.channel = channel;
+      this.now = now;
+      // Leave room for the header; we only know the number of entries at the end
+      buffer.position(SNAPSHOT_HEADER);
+    }
+
+    @Override
+    public void accept(final long high, final long low, final int length, final long deadline) {
+      if (deadline <= now || entries >= MAX_ENTRIES) {
+        return;
+      }
+      try {
+        if (buffer.remaining() < SNAPSHOT_ENTRY) {
+          flush();
+        }
+      } catch (IOException exception) {
+        throw new UncheckedIOException(exception);
+      }
+      buffer.putLong(high).putLong(low).putLong(deadline).putInt(length).putInt(0);
+      entries++;
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    int finish() throws IOException {
+      flush();
+      buffer.putInt(SNAPSHOT_MAGIC).putInt(entries).flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer, buffer.position());
+      }
+      channel.force(true);
+      return entries;
+    }
+  }
+
+  /**
+   * Sweeps all expired entries from the blacklist
+   */
+  public void cleanUp() {
+    final long now = System.currentTimeMillis();
+    addresses.sweep(now);
+    prefixes.sweep(now);
+    resetSubnetCounts(now);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+import static xyz.jonesdev.sonar.api.fallback.FallbackAddressKeys.*;
+
+/**
+ * Limits the number of pending connections per IP address and per /24 (IPv4) or /48 (IPv6) subnet.
+ * <br>
+ * Connections are counted from the moment their channel is initialized until they have logged in,
+ * the verification has taken over, or they are closed.
+ * This covers connections that never finish their handshake, but not players that are already online.
+ * The limiter only sees the address of the TCP connection, so it can't tell players apart
+ * behind proxy protocol or a standalone Geyser.
+ * Connections are always counted, even if the limits are disabled,
+ * so changing the limits doesn't mess up the counts of open connections.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PROTECTED)
+public final class FallbackConnectionLimiter {
+  // Prefix lengths (in bits of the IPv6 form) of the limited subnets
+  private static final int IPV4_SUBNET = 96 + 24;
+  private static final int IPV6_SUBNET = 48;
+
+  private final FallbackAddressTable addresses = new FallbackAddressTable();
+  private final FallbackAddressTable subnets = new FallbackAddressTable();
+  // Maximum number of open connections per IP address; 0 disables the limit
+  @Getter
+  @Setter
+  private volatile int maxPerAddress;
+  // Maximum number of open connections per subnet; 0 disables the limit
+  @Getter
+  @Setter
+  private volatile int maxPerSubnet;
+
+  /**
+   * Counts a new connection of the IP address if it doesn't exceed any limit
+   *
+   * @return Whether the connection has been counted and may continue;
+   * every counted connection has to be released using {@link #release(InetAddress)}
+   */
+  public boolean tryAcquire(final @NotNull InetAddress inetAddress) {
+    final long high = high(inetAddress), low = low(inetAddress);
+    final int length = inetAddress instanceof Inet4Address ? IPV4_SUBNET : IPV6_SUBNET;
+    final long subnetHigh = maskHigh(high, length), subnetLow = maskLow(low, length);
+
+    final int maxPerAddress = this.maxPerAddress;
+    if (addresses.increment(high, low) > maxPerAddress && maxPerAddress > 0) {
+      addresses.decrement(high, low);
+      return false;
+    }
+    final int maxPerSubnet = this.maxPerSubnet;
+    if (subnets.increment(subnetHigh, subnetLow) > maxPerSubnet && maxPerSubnet > 0) {
+      subnets.decrement(subnetHigh, subnetLow);
+      addresses.decrement(high, low);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Releases a connection that has been counted using {@link #tryAcquire(InetAddress)}
+   */
+  public void release(final @NotNull InetAddress inetAddress) {
+    final long high = high(inetAddress), low = low(inetAddress);
+    final int length = inetAddress instanceof Inet4Address ? IPV4_SUBNET : IPV6_SUBNET;
+    addresses.decrement(high, low);
+    subnets.decrement(maskHigh(high, length), maskLow(low, length));
+  }
+
+  /**
+   * @return Number of open connections of the IP address
+   */
+  public int get(final @NotNull InetAddress inetAddress) {
+    return addresses.get(inetAddress);
+  }
+}
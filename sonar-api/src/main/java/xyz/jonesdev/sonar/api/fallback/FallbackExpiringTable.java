@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongBinaryOperator;
+
+import static xyz.jonesdev.sonar.api.fallback.FallbackAddressKeys.hash;
+
+/**
+ * Concurrent open-addressing table that maps primitive address keys (see {@link FallbackAddressKeys})
+ * to long values which expire once they fall below a given threshold, such as expiry deadlines.
+ * <br>
+ * Keys and values are stored in parallel arrays, which costs 24 bytes per entry.
+ * The table is split into segments, each guarded by a {@link StampedLock}:
+ * lookups are optimistic and don't lock at all, updates only lock a single segment.
+ * Expired entries are only swept when a segment needs to grow or when {@link #sweep(long)}
+ * finds a segment that contains expired entries.
+ */
+final class FallbackExpiringTable {
+  private static final int SEGMENT_BITS = 6;
+  private static final int SEGMENTS = 1 << SEGMENT_BITS;
+  private static final int MIN_CAPACITY = 16;
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+  // Values at or below this threshold are dropped when a segment needs to grow
+  private volatile long expiredThreshold;
+
+  FallbackExpiringTable() {
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  /**
+   * @return Value of the key (including expired values) or 0 if there is no entry
+   */
+  long get(final long high, final long low) {
+    final long hash = hash(high, low);
+    return segmentFor(hash).get(high, low, (int) hash);
+  }
+
+  /**
+   * Atomically replaces the value of the key with the result of the given operator.
+   * The operator is called with the current value (or 0 if there is no entry) and the given operand;
+   * if it returns 0 for an existing entry, the entry is marked as expired.
+   *
+   * @return Previous value of the key or 0 if there was no entry
+   */
+  long getAndUpdate(final long high, final long low,
+                    final @NotNull LongBinaryOperator operator, final long operand) {
+    final long hash = hash(high, low);
+    return segmentFor(hash).getAndUpdate(high, low, (int) hash, operator, operand, expiredThreshold);
+  }
+
+  /**
+   * Removes all entries with values at or below the given threshold
+   */
+  void sweep(final long threshold) {
+    expiredThreshold = threshold;
+    for (final Segment segment : segments) {
+      // Only sweep segments that actually contain expired entries
+      if (segment.lowestValue <= threshold) {
+        segment.sweep(threshold);
+      }
+    }
+  }
+
+  /**
+   * @return Number of entries, including expired entries that haven't been swept yet
+   */
+  long size() {
+    long size = 0L;
+    for (final Segment segment : segments) {
+      size += segment.size;
+    }
+    return size;
+  }
+
+  void clear() {
+    for (final Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  /**
+   * Passes every entry (including expired entries that haven't been swept yet) to the visitor
+   */
+  void forEach(final @NotNull Visitor visitor) {
+    for (final Segment segment : segments) {
+      segment.forEach(visitor);
+    }
+  }
+
+  interface Visitor {
+    void accept(final long high, final long low, final long value);
+  }
+
+  private @NotNull Segment segmentFor(final long hash) {
+    return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+  }
+
+  private static final class Table {
+    // Two longs per slot (high, low) and the value of the slot
+    final long[] keys;
+    final long[] values;
+    final int mask;
+
+    Table(final int capacity) {
+      this.keys = new long[capacity << 1];
+      this.values = new long[capacity];
+      this.mask = capacity - 1;
+    }
+
+    int indexOf(final long high, final long low, final int hash) {
+      // Make sure we don't loop forever if we read an inconsistent state during an optimistic read
+      for (int index = hash & mask, probes = 0; probes <= mask; index = (index + 1) & mask, probes++) {
+        if (values[index] == 0L) {
+          return ~index;
+        }
+        if (keys[index << 1] == high && keys[(index << 1) + 1] == low) {
+          return index;
+        }
+      }
+      return ~0;
+    }
+  }
+
+  private static final class Segment {
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private volatile int size;
+    private volatile long lowestValue = Long.MAX_VALUE;
+
+    long get(final long high, final long low, final int hash) {
+      long stamp = lock.tryOptimisticRead();
+      long value = read(high, low, hash);
+      if (!lock.validate(stamp)) {
+        // Someone modified the segment during our lookup, so we need to read it again
+        stamp = lock.readLock();
+        try {
+          value = read(high, low, hash);
+        } finally {
+          lock.unlockRead(stamp);
+        }
+      }
+      return value;
+    }
+
+    private long read(final long high, final long low, final int hash) {
+      final Table table = this.table;
+      final int index = table.indexOf(high, low, hash);
+      return index >= 0 ? table.values[index] : 0L;
+    }
+
+    long getAndUpdate(final long high, final long low, final int hash,
+                      final @NotNull LongBinaryOperator operator, final long operand,
+                      final long expiredThreshold) {
+      final long stamp = lock.writeLock();
+      try {
+        Table table = this.table;
+        int index = table.indexOf(high, low, hash);
+        final long current = index >= 0 ? table.values[index] : 0L;
+        long value = operator.applyAsLong(current, operand);
+        if (value == current) {
+          return current;
+        }
+        if (index < 0) {
+          // Sweep the expired entries (and grow if necessary) before the table gets too full
+          if (size + 1 > (table.values.length >> 2) * 3) {
+            table = rebuild(table, expiredThreshold);
+            index = table.indexOf(high, low, hash);
+          }
+          size++;
+          index = ~index;
+          table.keys[index << 1] = high;
+          table.keys[(index << 1) + 1] = low;
+        } else if (value == 0L) {
+          // We can't use 0 here since it marks empty slots
+          value = 1L;
+        }
+        table.values[index] = value;
+        lowestValue = Math.min(lowestValue, value);
+        return current;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    void sweep(final long threshold) {
+      final long stamp = lock.writeLock();
+      try {
+        rebuild(table, threshold);
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    void forEach(final @NotNull Visitor visitor) {
+      final long stamp = lock.readLock();
+      try {
+        final Table table = this.table;
+        for (int index = 0; index < table.values.length; index++) {
+          final long value = table.values[index];
+          if (value != 0L) {
+            visitor.accept(table.keys[index << 1], table.keys[(index << 1) + 1], value);
+          }
+        }
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    void clear() {
+      final long stamp = lock.writeLock();
+      try {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+        lowestValue = Long.MAX_VALUE;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    // Copies all entries that haven't expired yet into a new table
+    // that is at most half full; has to be called while holding the write lock.
+    private @NotNull Table rebuild(final @NotNull Table table, final long threshold) {
+      int live = 0;
+      long lowest = Long.MAX_VALUE;
+      for (final long value : table.values) {
+        if (value != 0L && value > threshold) {
+          live++;
+          lowest = Math.min(lowest, value);
+        }
+      }
+
+      int capacity = MIN_CAPACITY;
+      while (capacity >> 1 <= live) {
+        capacity <<= 1;
+      }
+
+      final Table rebuilt = new Table(capacity);
+      for (int index = 0; index < table.values.length; index++) {
+        final long value = table.values[index];
+        if (value != 0L && value > threshold) {
+          final long high = table.keys[index << 1], low = table.keys[(index << 1) + 1];
+          final int slot = ~rebuilt.indexOf(high, low, (int) hash(high, low));
+          rebuilt.keys[slot << 1] = high;
+          rebuilt.keys[(slot << 1) + 1] = low;
+          rebuilt.values[slot] = value;
+        }
+      }
+
+      this.table = rebuilt;
+      this.size = live;
+      this.lowestValue = lowest;
+      return rebuilt;
+    }
+  }
+}
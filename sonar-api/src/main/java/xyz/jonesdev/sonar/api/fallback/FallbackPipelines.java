@@ -22,4 +22,5 @@ public interface FallbackPipelines {
   String FALLBACK_PACKET_ENCODER = "sonar-fallback-encoder";
   String FALLBACK_PACKET_DECODER = "sonar-fallback-decoder";
   String FALLBACK_BANDWIDTH = "sonar-fallback-bandwidth";
+  String FALLBACK_FLUSH_CONSOLIDATION = "sonar-fallback-flush-consolidation";
 }
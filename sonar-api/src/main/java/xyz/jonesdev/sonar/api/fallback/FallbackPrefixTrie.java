@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static xyz.jonesdev.sonar.api.fallback.FallbackAddressKeys.maskHigh;
+import static xyz.jonesdev.sonar.api.fallback.FallbackAddressKeys.maskLow;
+
+/**
+ * Path-compressed binary radix (patricia) trie of blacklisted IP address prefixes.
+ * <br>
+ * Keys are the 128 bits of the primitive address keys (see {@link FallbackAddressKeys}),
+ * so IPv4 prefixes live below ::ffff:0:0/96. Nodes are immutable and every update
+ * replaces the path to the root, which lets lookups run without any locking.
+ */
+final class FallbackPrefixTrie {
+  private volatile @Nullable Node root;
+  private volatile int size;
+  private volatile long earliestDeadline = Long.MAX_VALUE;
+
+  /**
+   * @return Whether any prefix that hasn't expired yet contains the address
+   */
+  boolean contains(final long high, final long low, final long now) {
+    Node node = root;
+    while (node != null && node.matches(high, low)) {
+      if (node.deadline > now) {
+        return true;
+      }
+      node = node.child(high, low);
+    }
+    return false;
+  }
+
+  /**
+   * @return Expiry deadline of the exact prefix or 0 if the prefix isn't in the trie
+   */
+  long deadline(final long high, final long low, final int length) {
+    Node node = root;
+    while (node != null && node.length <= length && node.matches(high, low)) {
+      if (node.length == length) {
+        return node.deadline;
+      }
+      node = node.child(high, low);
+    }
+    return 0L;
+  }
+
+  synchronized void put(final long high, final long low, final int length, final long deadline) {
+    if (deadline(high, low, length) == 0L) {
+      size++;
+    }
+    root = insert(root, maskHigh(high, length), maskLow(low, length), length, deadline);
+    earliestDeadline = Math.min(earliestDeadline, deadline);
+  }
+
+  synchronized void remove(final long high, final long low, final int length) {
+    if (deadline(high, low, length) != 0L) {
+      size--;
+      root = remove(root, maskHigh(high, length), maskLow(low, length), length);
+    }
+  }
+
+  /**
+   * Removes all expired prefixes from the trie if there are any
+   */
+  synchronized void sweep(final long now) {
+    if (earliestDeadline <= now) {
+      size = 0;
+      earliestDeadline = Long.MAX_VALUE;
+      root = sweep(root, now);
+    }
+  }
+
+  synchronized void clear() {
+    size = 0;
+    earliestDeadline = Long.MAX_VALUE;
+    root = null;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Passes every prefix (including expired prefixes that haven't been swept yet) to the visitor
+   */
+  void forEach(final @NotNull Visitor visitor) {
+    // Nodes are immutable, so we can safely walk the current root without locking
+    forEach(root, visitor);
+  }
+
+  private static void forEach(final @Nullable Node node, final @NotNull Visitor visitor) {
+    if (node != null) {
+      // Branching nodes don't have a deadline
+      if (node.deadline != 0L) {
+        visitor.accept(node.high, node.low, node.length, node.deadline);
+      }
+      forEach(node.zero, visitor);
+      forEach(node.one, visitor);
+    }
+  }
+
+  interface Visitor {
+    void accept(final long high, final long low, final int length, final long deadline);
+  }
+
+  private static @Nullable Node insert(final @Nullable Node node,
+                                       final long high, final long low, final int length,
+                                       final long deadline) {
+    if (node == null) {
+      return new Node(high, low, length, deadline, null, null);
+    }
+    final int common = Math.min(commonPrefixLength(node.high, node.low, high, low), Math.min(node.length, length));
+    // Same prefix; only update the expiry deadline
+    if (common == node.length && common == length) {
+      return new Node(node.high, node.low, length, deadline, node.zero, node.one);
+    }
+    // The new prefix is part of this prefix
+    if (common == node.length) {
+      return bit(high, low, node.length) == 0
+        ? node.withChildren(insert(node.zero, high, low, length, deadline), node.one)
+        : node.withChildren(node.zero, insert(node.one, high, low, length, deadline));
+    }
+    // This prefix is part of the new prefix
+    if (common == length) {
+      return bit(node.high, node.low, length) == 0
+        ? new Node(high, low, length, deadline, node, null)
+        : new Node(high, low, length, deadline, null, node);
+    }
+    // Both prefixes only share the first few bits, so we need to branch there
+    final Node leaf = new Node(high, low, length, deadline, null, null);
+    return bit(high, low, common) == 0
+      ? new Node(maskHigh(high, common), maskLow(low, common), common, 0L, leaf, node)
+      : new Node(maskHigh(high, common), maskLow(low, common), common, 0L, node, leaf);
+  }
+
+  private static @Nullable Node remove(final @Nullable Node node,
+                                       final long high, final long low, final int length) {
+    if (node == null || node.length > length || !node.matches(high, low)) {
+      return node;
+    }
+    if (node.length == length) {
+      return compact(node.high, node.low, node.length, 0L, node.zero, node.one);
+    }
+    return bit(high, low, node.length) == 0
+      ? compact(node.high, node.low, node.length, node.deadline, remove(node.zero, high, low, length), node.one)
+      : compact(node.high, node.low, node.length, node.deadline, node.zero, remove(node.one, high, low, length));
+  }
+
+  private @Nullable Node sweep(final @Nullable Node node, final long now) {
+    if (node == null) {
+      return null;
+    }
+    final long deadline = node.deadline > now ? node.deadline : 0L;
+    if (deadline != 0L) {
+      size++;
+      earliestDeadline = Math.min(earliestDeadline, deadline);
+    }
+    return compact(node.high, node.low, node.length, deadline, sweep(node.zero, now), sweep(node.one, now));
+  }
+
+  // Branching nodes without a deadline are only needed if they actually branch
+  private static @Nullable Node compact(final long high, final long low, final int length, final long deadline,
+                                        final @Nullable Node zero, final @Nullable Node one) {
+    if (deadline == 0L && (zero == null || one == null)) {
+      return zero != null ? zero : one;
+    }
+    return new Node(high, low, length, deadline, zero, one);
+  }
+
+  private static int commonPrefixLength(final long high1, final long low1, final long high2, final long low2) {
+    final long high = high1 ^ high2;
+    return high != 0L ? Long.numberOfLeadingZeros(high) : 64 + Long.numberOfLeadingZeros(low1 ^ low2);
+  }
+
+  private static int bit(final long high, final long low, final int index) {
+    return (int) (index < 64 ? high >>> (63 - index) : low >>> (127 - index)) & 1;
+  }
+
+  private static final class Node {
+    final long high, low;
+    final int length;
+    // Expiry deadline of this prefix or 0 if this node is only used for branching
+    final long deadline;
+    final @Nullable Node zero, one;
+
+    Node(final long high, final long low, final int length, final long deadline,
+         final @Nullable Node zero, final @Nullable Node one) {
+      this.high = high;
+      this.low = low;
+      this.length = length;
+      this.deadline = deadline;
+      this.zero = zero;
+      this.one = one;
+    }
+
+    boolean matches(final long high, final long low) {
+      return maskHigh(high, length) == this.high && maskLow(low, length) == this.low;
+    }
+
+    @Nullable Node child(final long high, final long low) {
+      if (length == 128) {
+        return null;
+      }
+      return bit(high, low, length) == 0 ? zero : one;
+    }
+
+    Node withChildren(final @Nullable Node zero, final @Nullable Node one) {
+      return new Node(high, low, length, deadline, zero, one);
+    }
+  }
+}
@@ -18,41 +18,174 @@
 package xyz.jonesdev.sonar.api.fallback;
 
 import lombok.AccessLevel;
-import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import xyz.jonesdev.sonar.api.Sonar;
 
 import java.net.InetAddress;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-@Getter
+/**
+ * First-in-first-out queue of all new verifications.
+ * <br>
+ * Queued players are stored in an intrusive multi-producer single-consumer linked queue.
+ * Every entry has a ticket which is also stored in an index of all queued IP addresses,
+ * so checking and removing an IP address is O(1): removing it from the index cancels the entry,
+ * and cancelled entries are simply skipped when polling.
+ * Cancelled entries drop their task right away, so they don't keep the channel of the player alive
+ * until the consumer reaches them. Entries are found through a ring of slots indexed by their ticket;
+ * an entry whose slot has been taken over by a newer entry keeps its task until it is polled.
+ * <br>
+ * Polled verifications are started on the executor they were queued with (the event loop of the channel),
+ * batched per executor, so there is no intermediate thread pool and no hop back to the event loop.
+ */
 @RequiredArgsConstructor(access = AccessLevel.PROTECTED)
 public final class FallbackQueue {
-  // Fixed thread pool executor for all new verifications
-  private static final int THREAD_POOL_SIZE = Math.min(0x7fff, Runtime.getRuntime().availableProcessors() * 2);
-  private static final ExecutorService QUEUE_EXECUTOR = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+  // Time in milliseconds between two polls
+  public static final long POLL_INTERVAL = 50L;
+
+  // Maps all queued IP addresses to the ticket of their entry
+  private final FallbackAddressTable index = new FallbackAddressTable();
+  private final AtomicInteger tickets = new AtomicInteger();
+  // Recently queued entries indexed by their ticket, so we can cancel them without any allocations
+  private static final int SLOTS = 1 << 16;
+  private final AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<>(SLOTS);
+  // Producers append to the tail, the consumer (poll) removes from the head
+  private final AtomicReference<Entry> tail = new AtomicReference<>(new Entry(null, null, null, 0));
+  private Entry head = tail.get();
+  // Number of verifications that may still be started; only accessed by the consumer
+  private double credits;
+  // Verifications of the current poll grouped by their executor; only accessed by the consumer
+  private final Map<Executor, List<Runnable>> batches = new IdentityHashMap<>();
+
+  /**
+   * @return Whether the IP address is currently queued
+   */
+  public boolean contains(final @NotNull InetAddress inetAddress) {
+    return index.contains(inetAddress);
+  }
+
+  /**
+   * Queues a new verification; replaces any queued verification of the same IP address
+   *
+   * @param inetAddress IP address of the player
+   * @param executor    Executor to start the verification on (usually the event loop of the channel)
+   * @param runnable    Task that starts the verification
+   */
+  public void offer(final @NotNull InetAddress inetAddress,
+                    final @NotNull Executor executor,
+                    final @NotNull Runnable runnable) {
+    // Tickets have to be positive since the index doesn't store anything else
+    final int ticket = Math.max(tickets.incrementAndGet() & Integer.MAX_VALUE, 1);
+    final Entry entry = new Entry(inetAddress, executor, runnable, ticket);
+    // The entry has to be known before its ticket is visible in the index, so it can always be cancelled
+    entries.set(ticket & (SLOTS - 1), entry);
+    cancel(index.put(inetAddress, ticket));
+    tail.getAndSet(entry).next = entry;
+  }
+
+  /**
+   * Removes the IP address from the queue
+   */
+  public void remove(final @NotNull InetAddress inetAddress) {
+    cancel(index.remove(inetAddress));
+  }
+
+  private void cancel(final int ticket) {
+    if (ticket != 0) {
+      final int slot = ticket & (SLOTS - 1);
+      final Entry entry = entries.get(slot);
+      // The slot might already belong to a newer entry
+      if (entry != null && entry.ticket == ticket) {
+        // Make sure we don't keep a reference to the player until the entry is polled
+        entry.runnable = null;
+        entries.compareAndSet(slot, entry, null);
+      }
+    }
+  }
 
-  private final ConcurrentMap<InetAddress, Runnable> players = new ConcurrentHashMap<>(
-    128, 0.75f, Runtime.getRuntime().availableProcessors());
+  /**
+   * @return Number of queued players
+   */
+  public int size() {
+    return index.size();
+  }
 
+  /**
+   * Starts the next queued verifications in the order in which they were queued.
+   * This method is called every {@link #POLL_INTERVAL} milliseconds and must never be called concurrently.
+   */
   public void poll() {
-    final int maxQueuePolls = Sonar.get().getConfig().getQueue().getMaxQueuePolls();
-    int index = 0;
-
-    // Iterate through the map and process up to maxQueuePolls entries
-    // We need to be cautious here since we don't want any concurrency issues
-    final Iterator<Map.Entry<InetAddress, Runnable>> iterator = players.entrySet().iterator();
-    while (iterator.hasNext() && index++ < maxQueuePolls) {
-      // Run the cached runnable
-      final Map.Entry<InetAddress, Runnable> entry = iterator.next();
-      QUEUE_EXECUTOR.execute(entry.getValue());
-      // Remove runnable from the map
-      iterator.remove();
+    // Spread the current number of polls per second evenly across all polls
+    final double allowance = Sonar.get().getFallback().getAdmission().getLimit() * POLL_INTERVAL / 1000D;
+    // We only allow a small burst if the queue was empty for some time
+    credits = Math.min(credits + allowance, allowance + 1);
+
+    Entry entry;
+    while (credits >= 1 && (entry = next()) != null) {
+      final InetAddress inetAddress = entry.inetAddress;
+      final Executor executor = entry.executor;
+      final Runnable runnable = entry.runnable;
+      entries.compareAndSet(entry.ticket & (SLOTS - 1), entry, null);
+      // Make sure we don't keep a reference to the player
+      entry.inetAddress = null;
+      entry.executor = null;
+      entry.runnable = null;
+      // Skip entries of players that disconnected or have been queued again in the meantime
+      if (inetAddress != null && executor != null && runnable != null
+        && index.remove(inetAddress, entry.ticket)) {
+        credits--;
+        batches.computeIfAbsent(executor, key -> new ArrayList<>(4)).add(runnable);
+      }
+    }
+
+    // Hand every executor all of its verifications at once instead of waking it up for every single one
+    for (final Map.Entry<Executor, List<Runnable>> batch : batches.entrySet()) {
+      final List<Runnable> runnables = batch.getValue();
+      batch.getKey().execute(() -> {
+        for (final Runnable runnable : runnables) {
+          try {
+            runnable.run();
+          } catch (Throwable throwable) {
+            Sonar.get().getFallback().getLogger().error("Could not start verification: {}", throwable);
+          }
+        }
+      });
+    }
+    batches.clear();
+  }
+
+  private @Nullable Entry next() {
+    final Entry next = head.next;
+    if (next != null) {
+      // The polled entry becomes the new head
+      head = next;
+    }
+    return next;
+  }
+
+  private static final class Entry {
+    private @Nullable InetAddress inetAddress;
+    private @Nullable Executor executor;
+    // Volatile since cancelling the entry clears it from other threads
+    private volatile @Nullable Runnable runnable;
+    private final int ticket;
+    private volatile Entry next;
+
+    Entry(final @Nullable InetAddress inetAddress, final @Nullable Executor executor,
+          final @Nullable Runnable runnable, final int ticket) {
+      this.inetAddress = inetAddress;
+      this.executor = executor;
+      this.runnable = runnable;
+      this.ticket = ticket;
     }
   }
 }
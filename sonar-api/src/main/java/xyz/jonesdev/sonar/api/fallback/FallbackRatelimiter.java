@@ -17,22 +17,80 @@
 
 package xyz.jonesdev.sonar.api.fallback;
 
-import com.github.benmanes.caffeine.cache.Cache;
 import lombok.AccessLevel;
-import lombok.Getter;
 import lombok.NoArgsConstructor;
-import lombok.Setter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongBinaryOperator;
 
-@Setter
+import static xyz.jonesdev.sonar.api.fallback.FallbackAddressKeys.*;
+
+/**
+ * Rate-limits verification attempts using token buckets per IP address,
+ * per /24 (IPv4) or /48 (IPv6) subnet and globally.
+ * <br>
+ * Every bucket is stored as a single long, its theoretical arrival time (see GCRA):
+ * an attempt is allowed if the theoretical arrival time isn't further ahead of the current time
+ * than the burst allows, in which case it is advanced by the refill interval of one token.
+ * This way, the buckets can be stored in a {@link FallbackExpiringTable} and checking them
+ * doesn't allocate anything.
+ */
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
 public final class FallbackRatelimiter {
-  private long timeout;
-  private Cache<InetAddress, Long> attemptCache;
-  @Getter
-  private Cache<InetAddress, Integer> failCountCache;
+  // Prefix lengths (in bits of the IPv6 form) used for rate-limiting subnets
+  private static final int IPV4_SUBNET = 96 + 24;
+  private static final int IPV6_SUBNET = 48;
+  // Used for making sure our timestamps are always positive
+  private static final long ORIGIN = System.nanoTime();
+
+  private static final LongBinaryOperator RESET = (current, ignored) -> 0L;
+  // Gives a token back to a bucket; we can't use 0 since it would create an entry for a full bucket
+  private static final LongBinaryOperator REFUND = (arrival, interval) ->
+    arrival == 0L ? 0L : Math.max(arrival - interval, 1L);
+
+  private final FallbackExpiringTable attempts = new FallbackExpiringTable();
+  private final FallbackExpiringTable subnetAttempts = new FallbackExpiringTable();
+  private final AtomicLong globalAttempts = new AtomicLong();
+  // Stores the expiry deadline (in milliseconds) in the upper and the number of fails in the lower 8 bits
+  private final FallbackExpiringTable failCounts = new FallbackExpiringTable();
+
+  private volatile @Nullable TokenBucket bucket, subnetBucket, globalBucket;
+  private volatile @NotNull FailCounter failCounter = new FailCounter(0L);
+
+  /**
+   * @param reconnectDelay Time in milliseconds a player has to wait before verifying again
+   */
+  public void setReconnectDelay(final long reconnectDelay) {
+    bucket = reconnectDelay <= 0 ? null : new TokenBucket(TimeUnit.MILLISECONDS.toNanos(reconnectDelay), 1);
+  }
+
+  /**
+   * @param attemptsPerMinute Maximum number of verification attempts of the same subnet per minute
+   */
+  public void setSubnetLimit(final int attemptsPerMinute) {
+    subnetBucket = attemptsPerMinute <= 0 ? null
+      : new TokenBucket(TimeUnit.MINUTES.toNanos(1L) / attemptsPerMinute, attemptsPerMinute);
+  }
+
+  /**
+   * @param attemptsPerSecond Maximum number of verification attempts in total per second
+   */
+  public void setGlobalLimit(final int attemptsPerSecond) {
+    globalBucket = attemptsPerSecond <= 0 ? null
+      : new TokenBucket(TimeUnit.SECONDS.toNanos(1L) / attemptsPerSecond, attemptsPerSecond);
+  }
+
+  /**
+   * @param rememberTime Time in milliseconds after which the number of fails is reset
+   */
+  public void setRememberTime(final long rememberTime) {
+    failCounter = new FailCounter(rememberTime);
+  }
 
   /**
    * Attempts to rate-limit the client
@@ -41,25 +99,119 @@ public final class FallbackRatelimiter {
    * @return Whether the player is allowed to verify
    */
   public boolean attempt(final @NotNull InetAddress inetAddress) {
-    final long expectedTimestamp = System.currentTimeMillis() + timeout;
-    // Check if the time since the last join has not exceeded the timeout
-    // The idea for this check was Taken from Velocity
-    final long last = attemptCache.get(inetAddress, result -> expectedTimestamp);
-    return expectedTimestamp == last;
+    final long now = System.nanoTime() - ORIGIN;
+    final long high = high(inetAddress), low = low(inetAddress);
+
+    // Check the buckets from the most to the least specific one, so that
+    // a single IP address can't drain the buckets of its subnet or everyone else
+    final TokenBucket bucket = this.bucket;
+    if (bucket != null && !bucket.allows(attempts.getAndUpdate(high, low, bucket, now), now)) {
+      return false;
+    }
+
+    // Tokens taken from the more specific buckets are given back if a less specific bucket denies the attempt,
+    // so players aren't punished for attempts that were never allowed
+    final TokenBucket subnetBucket = this.subnetBucket;
+    final int length = inetAddress instanceof Inet4Address ? IPV4_SUBNET : IPV6_SUBNET;
+    final long subnetHigh = maskHigh(high, length), subnetLow = maskLow(low, length);
+    if (subnetBucket != null && !subnetBucket.allows(subnetAttempts.getAndUpdate(subnetHigh, subnetLow,
+      subnetBucket, now), now)) {
+      refund(attempts, high, low, bucket);
+      return false;
+    }
+
+    final TokenBucket globalBucket = this.globalBucket;
+    if (globalBucket != null) {
+      long previous;
+      do {
+        previous = globalAttempts.get();
+        if (!globalBucket.allows(previous, now)) {
+          refund(attempts, high, low, bucket);
+          refund(subnetAttempts, subnetHigh, subnetLow, subnetBucket);
+          return false;
+        }
+      } while (!globalAttempts.compareAndSet(previous, globalBucket.applyAsLong(previous, now)));
+    }
+    return true;
+  }
+
+  private static void refund(final @NotNull FallbackExpiringTable table, final long high, final long low,
+                             final @Nullable TokenBucket bucket) {
+    if (bucket != null) {
+      table.getAndUpdate(high, low, REFUND, bucket.interval);
+    }
   }
 
   /**
-   * Checks if the player is failing verifications too often
    * Increments the number of times this user has failed the verification
    *
    * @param inetAddress IP address of the player
-   * @param count       Count of previously failed verifications
+   * @return Number of failed verifications, including this one
+   */
+  public int incrementFails(final @NotNull InetAddress inetAddress) {
+    final long now = System.currentTimeMillis();
+    final FailCounter failCounter = this.failCounter;
+    final long previous = failCounts.getAndUpdate(high(inetAddress), low(inetAddress), failCounter, now);
+    return failCounter.count(previous, now) + 1;
+  }
+
+  /**
+   * Resets the number of times this user has failed the verification
+   *
+   * @param inetAddress IP address of the player
    */
-  public void incrementFails(final @NotNull InetAddress inetAddress, final int count) {
-    // Make sure to remove the old values from the cache
-    if (count > 0) {
-      failCountCache.invalidate(inetAddress);
+  public void resetFails(final @NotNull InetAddress inetAddress) {
+    failCounts.getAndUpdate(high(inetAddress), low(inetAddress), RESET, 0L);
+  }
+
+  /**
+   * Sweeps all full buckets and expired fail counts
+   */
+  public void cleanUp() {
+    final long now = System.nanoTime() - ORIGIN;
+    // Buckets are full again once their theoretical arrival time has passed
+    attempts.sweep(now);
+    subnetAttempts.sweep(now);
+    failCounts.sweep(System.currentTimeMillis() << 8 | 0xFF);
+  }
+
+  private static final class TokenBucket implements LongBinaryOperator {
+    // Time in nanoseconds it takes to refill a single token
+    private final long interval;
+    // How far the theoretical arrival time may be ahead of the current time
+    private final long tolerance;
+
+    TokenBucket(final long interval, final int capacity) {
+      this.interval = Math.max(interval, 1L);
+      this.tolerance = this.interval * (capacity - 1);
+    }
+
+    boolean allows(final long arrival, final long now) {
+      return Math.max(arrival, now) - now <= tolerance;
+    }
+
+    @Override
+    public long applyAsLong(final long arrival, final long now) {
+      // Don't touch the bucket at all if there are no tokens left
+      return allows(arrival, now) ? Math.max(arrival, now) + interval : arrival;
+    }
+  }
+
+  private static final class FailCounter implements LongBinaryOperator {
+    // Time in milliseconds after which the number of fails is reset
+    private final long rememberTime;
+
+    FailCounter(final long rememberTime) {
+      this.rememberTime = rememberTime;
+    }
+
+    int count(final long value, final long now) {
+      return value >>> 8 > now ? (int) (value & 0xFF) : 0;
+    }
+
+    @Override
+    public long applyAsLong(final long value, final long now) {
+      return (now + rememberTime) << 8 | Math.min(count(value, now) + 1, 0xFF);
     }
-    failCountCache.put(inetAddress, count + 1);
   }
 }
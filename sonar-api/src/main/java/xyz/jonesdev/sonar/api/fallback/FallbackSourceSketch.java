@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static xyz.jonesdev.sonar.api.fallback.FallbackAddressKeys.*;
+
+/**
+ * Estimates how often IP addresses and subnets connect to the server in fixed memory,
+ * no matter how many different IP addresses are connecting.
+ * <br>
+ * Connections are counted in count-min sketches, which may overestimate but never underestimate
+ * the number of connections of a source. The most frequent sources are kept in a small min-heap.
+ * All counts are halved every {@link #DECAY_INTERVAL} milliseconds, so they only reflect recent connections.
+ */
+public final class FallbackSourceSketch {
+  // Time in milliseconds between two decays of all counts
+  public static final long DECAY_INTERVAL = 10000L;
+  // Number of most frequent sources we keep track of
+  public static final int TOP_SOURCES = 10;
+
+  // Prefix lengths (in bits of the IPv6 form) of the tracked subnets
+  private static final int IPV4_SUBNET = 96 + 24;
+  private static final int IPV6_SUBNET = 48;
+
+  private final Sketch addresses = new Sketch();
+  private final Sketch subnets = new Sketch();
+
+  /**
+   * Counts a new connection of the IP address and its /24 (IPv4) or /48 (IPv6) subnet
+   */
+  public void count(final @NotNull InetAddress inetAddress) {
+    final long high = high(inetAddress), low = low(inetAddress);
+    addresses.increment(high, low, 128);
+    final int length = inetAddress instanceof Inet4Address ? IPV4_SUBNET : IPV6_SUBNET;
+    subnets.increment(maskHigh(high, length), maskLow(low, length), length);
+  }
+
+  /**
+   * @return Estimated number of recent connections of the IP address
+   */
+  public int estimate(final @NotNull InetAddress inetAddress) {
+    return addresses.estimate(high(inetAddress), low(inetAddress));
+  }
+
+  /**
+   * @return Estimated number of recent connections of the /24 (IPv4) or /48 (IPv6) subnet of the IP address
+   */
+  public int estimateSubnet(final @NotNull InetAddress inetAddress) {
+    final int length = inetAddress instanceof Inet4Address ? IPV4_SUBNET : IPV6_SUBNET;
+    return subnets.estimate(maskHigh(high(inetAddress), length), maskLow(low(inetAddress), length));
+  }
+
+  /**
+   * @return IP addresses with the most recent connections (most frequent first)
+   */
+  public @NotNull List<Source> getTopAddresses() {
+    return addresses.top();
+  }
+
+  /**
+   * @return Subnets with the most recent connections (most frequent first)
+   */
+  public @NotNull List<Source> getTopSubnets() {
+    return subnets.top();
+  }
+
+  /**
+   * Halves all counts; called every {@link #DECAY_INTERVAL} milliseconds
+   */
+  public void decay() {
+    addresses.decay();
+    subnets.decay();
+  }
+
+  @Getter
+  @RequiredArgsConstructor
+  public static final class Source {
+    // IP address or subnet in CIDR notation
+    private final String address;
+    // Estimated number of recent connections
+    private final int connections;
+  }
+
+  private static final class Sketch {
+    private static final int DEPTH = 4;
+    private static final int WIDTH_BITS = 12;
+    private static final int WIDTH_MASK = (1 << WIDTH_BITS) - 1;
+
+    // DEPTH rows of counters; every row uses different bits of the hash as its index
+    private final AtomicIntegerArray counters = new AtomicIntegerArray(DEPTH << WIDTH_BITS);
+    // Min-heap of the most frequent sources ordered by their estimated count
+    private final long[] heapKeys = new long[TOP_SOURCES << 1];
+    private final int[] heapLengths = new int[TOP_SOURCES];
+    private final int[] heapCounts = new int[TOP_SOURCES];
+    private int heapSize;
+    // Smallest count in the heap once it is full; lets us skip the lock for infrequent sources
+    private volatile int threshold;
+
+    void increment(final long high, final long low, final int length) {
+      final long hash = hash(high, low);
+      int estimate = Integer.MAX_VALUE;
+      for (int row = 0; row < DEPTH; row++) {
+        estimate = Math.min(estimate, counters.incrementAndGet(index(hash, row)));
+      }
+      if (estimate > threshold) {
+        offer(high, low, length, estimate);
+      }
+    }
+
+    int estimate(final long high, final long low) {
+      final long hash = hash(high, low);
+      int estimate = Integer.MAX_VALUE;
+      for (int row = 0; row < DEPTH; row++) {
+        estimate = Math.min(estimate, counters.get(index(hash, row)));
+      }
+      return estimate;
+    }
+
+    private static int index(final long hash, final int row) {
+      return (row << WIDTH_BITS) | ((int) (hash >>> (row * WIDTH_BITS)) & WIDTH_MASK);
+    }
+
+    private synchronized void offer(final long high, final long low, final int length, final int estimate) {
+      int index = -1;
+      for (int i = 0; i < heapSize; i++) {
+        if (heapKeys[i << 1] == high && heapKeys[(i << 1) + 1] == low) {
+          index = i;
+          break;
+        }
+      }
+      if (index >= 0) {
+        // Counts only grow between two decays, so the source can only move down
+        heapCounts[index] = Math.max(heapCounts[index], estimate);
+        siftDown(index);
+      } else if (heapSize < TOP_SOURCES) {
+        set(heapSize, high, low, length, estimate);
+        siftUp(heapSize++);
+      } else if (estimate > heapCounts[0]) {
+        // Replace the least frequent source
+        set(0, high, low, length, estimate);
+        siftDown(0);
+      }
+      threshold = heapSize < TOP_SOURCES ? 0 : heapCounts[0];
+    }
+
+    synchronized void decay() {
+      // Increments that happen while we are halving the counters might get lost,
+      // which is fine since the counts are only estimates anyway.
+      for (int i = 0; i < counters.length(); i++) {
+        counters.set(i, counters.get(i) >> 1);
+      }
+      // Halving all counts doesn't change their order, so the heap stays valid
+      for (int i = 0; i < heapSize; i++) {
+        heapCounts[i] >>= 1;
+      }
+      threshold = heapSize < TOP_SOURCES ? 0 : heapCounts[0];
+    }
+
+    synchronized @NotNull List<Source> top() {
+      final List<Source> top = new ArrayList<>(heapSize);
+      for (int i = 0; i < heapSize; i++) {
+        // Skip sources that haven't connected recently
+        if (heapCounts[i] > 0) {
+          top.add(new Source(format(heapKeys[i << 1], heapKeys[(i << 1) + 1], heapLengths[i]), heapCounts[i]));
+        }
+      }
+      top.sort((first, second) -> Integer.compare(second.connections, first.connections));
+      return top;
+    }
+
+    private static @NotNull String format(final long high, final long low, final int length) {
+      final InetAddress inetAddress = toInetAddress(high, low);
+      if (length == 128) {
+        return inetAddress.getHostAddress();
+      }
+      return inetAddress.getHostAddress() + "/" + (inetAddress instanceof Inet4Address ? length - 96 : length);
+    }
+
+    private void set(final int index, final long high, final long low, final int length, final int count) {
+      heapKeys[index << 1] = high;
+      heapKeys[(index << 1) + 1] = low;
+      heapLengths[index] = length;
+      heapCounts[index] = count;
+    }
+
+    private void siftUp(int index) {
+      while (index > 0) {
+        final int parent = (index - 1) >> 1;
+        if (heapCounts[parent] <= heapCounts[index]) {
+          break;
+        }
+        swap(index, parent);
+        index = parent;
+      }
+    }
+
+    private void siftDown(int index) {
+      while (true) {
+        final int left = (index << 1) + 1, right = left + 1;
+        int smallest = index;
+        if (left < heapSize && heapCounts[left] < heapCounts[smallest]) {
+          smallest = left;
+        }
+        if (right < heapSize && heapCounts[right] < heapCounts[smallest]) {
+          smallest = right;
+        }
+        if (smallest == index) {
+          break;
+        }
+        swap(index, smallest);
+        index = smallest;
+      }
+    }
+
+    private void swap(final int first, final int second) {
+      final long high = heapKeys[first << 1], low = heapKeys[(first << 1) + 1];
+      final int length = heapLengths[first], count = heapCounts[first];
+      set(first, heapKeys[second << 1], heapKeys[(second << 1) + 1], heapLengths[second], heapCounts[second]);
+      set(second, high, low, length, count);
+    }
+  }
+}
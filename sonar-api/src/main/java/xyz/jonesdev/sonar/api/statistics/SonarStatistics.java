@@ -18,6 +18,9 @@
 package xyz.jonesdev.sonar.api.statistics;
 
 import org.jetbrains.annotations.ApiStatus;
+import xyz.jonesdev.sonar.api.fallback.FallbackSourceSketch;
+
+import java.util.List;
 
 @SuppressWarnings("unused")
 public interface SonarStatistics {
@@ -113,6 +116,16 @@ public interface SonarStatistics {
    */
   long getTotalBlacklistSize();
 
+  /**
+   * @return IP addresses with the most recent connections (most frequent first)
+   */
+  List<FallbackSourceSketch.Source> getTopConnectingAddresses();
+
+  /**
+   * @return Subnets with the most recent connections (most frequent first)
+   */
+  List<FallbackSourceSketch.Source> getTopConnectingSubnets();
+
   @ApiStatus.Internal
   void cleanUpCache();
 }
@@ -54,7 +54,9 @@ public void observe() {
       Placeholder.component("prefix", Sonar.get().getConfig().getPrefix()),
       Placeholder.unparsed("attack-duration", attackDuration),
       Placeholder.unparsed("animation", nextAnimation()),
-      Placeholder.unparsed("queued", DECIMAL_FORMAT.format(Sonar.get().getFallback().getQueue().getPlayers().size())),
+      Placeholder.unparsed("queued", DECIMAL_FORMAT.format(Sonar.get().getFallback().getQueue().size())),
+      Placeholder.unparsed("queue-polls", DECIMAL_FORMAT.format(Math.round(Sonar.get().getFallback().getAdmission().getLimit()))),
+      Placeholder.unparsed("queue-polls-history", Sonar.get().getFallback().getAdmission().getHistory()),
       Placeholder.unparsed("verifying", DECIMAL_FORMAT.format(Sonar.get().getFallback().getConnected().size())),
       Placeholder.unparsed("blacklisted", DECIMAL_FORMAT.format(Sonar.get().getFallback().getBlacklist().estimatedSize())),
       Placeholder.unparsed("total-joins", DECIMAL_FORMAT.format(Sonar.get().getStatistics().getTotalPlayersJoined())),
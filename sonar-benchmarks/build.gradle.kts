@@ -0,0 +1,36 @@
+plugins {
+  id("me.champeau.jmh") version "0.7.2" apply true
+}
+
+dependencies {
+  implementation(project(":api"))
+  implementation(project(":common"))
+
+  jmhCompileOnly(rootProject.libs.lombok)
+  jmhAnnotationProcessor(rootProject.libs.lombok)
+
+  // All libraries are compileOnly in the other modules since the platforms
+  // provide them at runtime, so we need to add them to the benchmark classpath.
+  jmh(rootProject.libs.netty)
+  jmh(rootProject.libs.adventure.nbt)
+  jmh(rootProject.libs.adventure.minimessage)
+  jmh(rootProject.libs.adventure.serializer)
+  jmh(rootProject.libs.caffeine)
+  jmh("org.jetbrains:annotations:24.0.1")
+}
+
+// Run all benchmarks using ./gradlew :benchmarks:jmh
+// Run specific benchmarks using ./gradlew :benchmarks:jmh -PjmhIncludes=<regex>
+jmh {
+  jmhVersion = "1.37"
+  warmupIterations = 3
+  iterations = 5
+  fork = 1
+  resultFormat = "JSON"
+  if (project.hasProperty("jmhIncludes")) {
+    includes = listOf(project.property("jmhIncludes").toString())
+  }
+}
+
+java.sourceCompatibility = JavaVersion.VERSION_11
+java.targetCompatibility = JavaVersion.VERSION_11
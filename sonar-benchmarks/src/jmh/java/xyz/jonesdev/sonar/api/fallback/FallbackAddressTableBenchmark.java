@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates the connect/disconnect bookkeeping of the online players per IP address
+ * and compares the address table with the previous map-based implementation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class FallbackAddressTableBenchmark {
+  private static final int ADDRESSES = 1 << 16;
+
+  private final FallbackAddressTable table = new FallbackAddressTable();
+  private final ConcurrentMap<InetAddress, Integer> map = new ConcurrentHashMap<>(128);
+  private InetAddress[] addresses;
+
+  @Setup
+  public void setup() throws UnknownHostException {
+    addresses = new InetAddress[ADDRESSES];
+    final byte[] ipv4 = new byte[4];
+    final byte[] ipv6 = new byte[16];
+    for (int i = 0; i < ADDRESSES; i++) {
+      // Use a mix of IPv4 and IPv6 addresses
+      final byte[] address = (i & 7) == 0 ? ipv6 : ipv4;
+      ThreadLocalRandom.current().nextBytes(address);
+      addresses[i] = InetAddress.getByAddress(address);
+    }
+  }
+
+  private InetAddress nextAddress() {
+    return addresses[ThreadLocalRandom.current().nextInt(ADDRESSES)];
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int connectAndDisconnect() {
+    final InetAddress inetAddress = nextAddress();
+    final int online = table.increment(inetAddress);
+    table.decrement(inetAddress);
+    return online;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int connectAndDisconnectBaseline() {
+    final InetAddress inetAddress = nextAddress();
+    final int online = map.compute(inetAddress, (key, value) -> value == null ? 1 : value + 1);
+    map.compute(inetAddress, (key, value) -> value == null || value <= 1 ? null : value - 1);
+    return online;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean contains() {
+    return table.contains(nextAddress());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean containsBaseline() {
+    return map.containsKey(nextAddress());
+  }
+}
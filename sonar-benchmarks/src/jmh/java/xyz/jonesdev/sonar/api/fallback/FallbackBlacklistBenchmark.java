@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the primitive blacklist with the previous Caffeine cache
+ * while a large number of IP addresses are blacklisted.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class FallbackBlacklistBenchmark {
+  private static final int ADDRESSES = 1 << 20;
+
+  private final FallbackBlacklist blacklist = new FallbackBlacklist();
+  private final Cache<InetAddress, Byte> cache = Caffeine.newBuilder()
+    .expireAfterWrite(Duration.ofMinutes(10L))
+    .ticker(Ticker.systemTicker())
+    .build();
+  private InetAddress[] addresses;
+
+  @Setup
+  public void setup() throws UnknownHostException {
+    blacklist.setExpiry(TimeUnit.MINUTES.toMillis(10L));
+    addresses = new InetAddress[ADDRESSES];
+    final byte[] address = new byte[4];
+    for (int i = 0; i < ADDRESSES; i++) {
+      ThreadLocalRandom.current().nextBytes(address);
+      addresses[i] = InetAddress.getByAddress(address);
+      // Only blacklist every second address, so we test both cases
+      if ((i & 1) == 0) {
+        blacklist.put(addresses[i]);
+        cache.put(addresses[i], (byte) 0);
+      }
+    }
+  }
+
+  private InetAddress nextAddress() {
+    return addresses[ThreadLocalRandom.current().nextInt(ADDRESSES)];
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean containsKey() {
+    return blacklist.containsKey(nextAddress());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean containsKeyBaseline() {
+    return cache.asMap().containsKey(nextAddress());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void put() {
+    blacklist.put(nextAddress());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void putBaseline() {
+    cache.put(nextAddress(), (byte) 0);
+  }
+}
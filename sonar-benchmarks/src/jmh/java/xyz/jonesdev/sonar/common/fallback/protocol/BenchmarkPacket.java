@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.common.fallback.protocol;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
+import xyz.jonesdev.sonar.common.fallback.protocol.dimension.DimensionRegistry;
+import xyz.jonesdev.sonar.common.fallback.protocol.packets.configuration.RegistryDataPacket;
+import xyz.jonesdev.sonar.common.fallback.protocol.packets.play.ChunkDataPacket;
+import xyz.jonesdev.sonar.common.fallback.protocol.packets.play.JoinGamePacket;
+import xyz.jonesdev.sonar.common.fallback.protocol.packets.play.KeepAlivePacket;
+import xyz.jonesdev.sonar.common.fallback.protocol.packets.play.SetPlayerPositionRotation;
+
+import static xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion.*;
+
+/**
+ * Packets that are sent or received most often during the verification.
+ * The values are the same ones {@link FallbackPreparer} uses, but they are
+ * created without a running Sonar instance, so we can benchmark them in isolation.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum BenchmarkPacket {
+  JOIN_GAME(FallbackPacketRegistry.GAME) {
+    @Override
+    FallbackPacket @NotNull [] create(final @NotNull ProtocolVersion protocolVersion) {
+      return new FallbackPacket[]{new JoinGamePacket(1, 2, 0, false, 0,
+        true, false, false, new String[]{"minecraft:overworld"}, "minecraft:overworld")};
+    }
+  },
+  CHUNK_DATA(FallbackPacketRegistry.GAME) {
+    @Override
+    FallbackPacket @NotNull [] create(final @NotNull ProtocolVersion protocolVersion) {
+      return new FallbackPacket[]{new ChunkDataPacket(0, 0)};
+    }
+  },
+  REGISTRY_DATA(FallbackPacketRegistry.CONFIG) {
+    @Override
+    FallbackPacket @NotNull [] create(final @NotNull ProtocolVersion protocolVersion) {
+      if (protocolVersion.compareTo(MINECRAFT_1_20_5) < 0) {
+        return new FallbackPacket[]{new RegistryDataPacket(DimensionRegistry.CODEC_1_20, null, null)};
+      }
+      // 1.20.5+ sends one packet for each registry type
+      final FallbackPacket[] snapshots = RegistryDataPacket.of(protocolVersion.compareTo(MINECRAFT_1_21) < 0
+        ? DimensionRegistry.CODEC_1_20 : DimensionRegistry.CODEC_1_21);
+      final FallbackPacket[] packets = new FallbackPacket[snapshots.length];
+      for (int i = 0; i < snapshots.length; i++) {
+        packets[i] = ((FallbackPacketSnapshot) snapshots[i]).getOriginalPacket();
+      }
+      return packets;
+    }
+  },
+  SET_PLAYER_POSITION_ROTATION(FallbackPacketRegistry.GAME) {
+    @Override
+    FallbackPacket @NotNull [] create(final @NotNull ProtocolVersion protocolVersion) {
+      return new FallbackPacket[]{new SetPlayerPositionRotation(8, 256, 8, 0f, -90f, 1337, false)};
+    }
+
+    @Override
+    void writeServerbound(final @NotNull ByteBuf byteBuf, final @NotNull ProtocolVersion protocolVersion) {
+      byteBuf.writeDouble(8);
+      byteBuf.writeDouble(256);
+      // 1.7 sends the head position (AABB minY + 1.62) as well
+      if (protocolVersion.compareTo(MINECRAFT_1_8) < 0) {
+        byteBuf.writeDouble(257.62);
+      }
+      byteBuf.writeDouble(8);
+      byteBuf.writeFloat(0f);
+      byteBuf.writeFloat(-90f);
+      byteBuf.writeBoolean(false);
+    }
+  },
+  KEEP_ALIVE(FallbackPacketRegistry.GAME) {
+    @Override
+    FallbackPacket @NotNull [] create(final @NotNull ProtocolVersion protocolVersion) {
+      return new FallbackPacket[]{new KeepAlivePacket(-1337L)};
+    }
+
+    @Override
+    void writeServerbound(final @NotNull ByteBuf byteBuf, final @NotNull ProtocolVersion protocolVersion) throws Exception {
+      // The KeepAlive packet has the same layout in both directions
+      create(protocolVersion)[0].encode(byteBuf, protocolVersion);
+    }
+  };
+
+  private final FallbackPacketRegistry registry;
+
+  /**
+   * @param protocolVersion Protocol version of the player
+   * @return All packets that are sent to the player for this type
+   */
+  abstract FallbackPacket @NotNull [] create(final @NotNull ProtocolVersion protocolVersion);
+
+  /**
+   * Writes the packet like a client would send it to the server
+   *
+   * @param byteBuf         ByteBuf
+   * @param protocolVersion Protocol version of the player
+   */
+  void writeServerbound(final @NotNull ByteBuf byteBuf,
+                        final @NotNull ProtocolVersion protocolVersion) throws Exception {
+    throw new UnsupportedOperationException(name() + " is never sent by the client");
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.common.fallback.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
+
+import java.util.concurrent.TimeUnit;
+
+import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.Direction.SERVERBOUND;
+import static xyz.jonesdev.sonar.common.util.ProtocolUtil.writeVarInt;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FallbackPacketDecoderBenchmark {
+
+  @State(Scope.Thread)
+  public static class DecoderState {
+    // One version for every major change of the packet formats we send and receive
+    @Param({
+      "MINECRAFT_1_7_2", "MINECRAFT_1_8", "MINECRAFT_1_9", "MINECRAFT_1_12_2", "MINECRAFT_1_13",
+      "MINECRAFT_1_16_2", "MINECRAFT_1_19_4", "MINECRAFT_1_20_2", "MINECRAFT_1_21"
+    })
+    public ProtocolVersion protocolVersion;
+    // JoinGame, ChunkData and RegistryData are never sent by the client
+    @Param({"SET_PLAYER_POSITION_ROTATION", "KEEP_ALIVE"})
+    public BenchmarkPacket packet;
+    @Param({"false", "true"})
+    public boolean recyclePackets;
+
+    EmbeddedChannel channel;
+    ChannelHandlerContext ctx;
+    FallbackPacketDecoder decoder;
+    ByteBuf frame;
+
+    @Setup
+    public void setup(final @NotNull Blackhole blackhole) throws Exception {
+      decoder = new FallbackPacketDecoder(protocolVersion);
+      decoder.updateRegistry(packet.getRegistry());
+      decoder.setRecyclePackets(recyclePackets);
+      // Consume all decoded packets, so they don't pile up in the channel
+      channel = new EmbeddedChannel(decoder, new ChannelInboundHandlerAdapter() {
+        @Override
+        public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+          blackhole.consume(msg);
+        }
+      });
+      ctx = channel.pipeline().context(decoder);
+
+      // Prepare the frame exactly like the client would send it (without the length prefix)
+      final int packetId = packet.getRegistry().getProtocolRegistry(SERVERBOUND, protocolVersion)
+        .getPacketId(packet.create(protocolVersion)[0]);
+      frame = Unpooled.directBuffer();
+      writeVarInt(frame, packetId);
+      packet.writeServerbound(frame, protocolVersion);
+    }
+
+    @TearDown
+    public void tearDown() {
+      frame.release();
+      channel.finishAndReleaseAll();
+    }
+  }
+
+  @Benchmark
+  public void channelRead(final @NotNull DecoderState state) throws Exception {
+    // The decoder releases the buffer, so we need to retain it every time
+    state.decoder.channelRead(state.ctx, state.frame.retainedDuplicate());
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.common.fallback.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FallbackPacketEncoderBenchmark {
+
+  @State(Scope.Thread)
+  public static class GameState extends EncoderState {
+    // One version for every major change of the packet formats we send and receive
+    @Param({
+      "MINECRAFT_1_7_2", "MINECRAFT_1_8", "MINECRAFT_1_9", "MINECRAFT_1_12_2", "MINECRAFT_1_13",
+      "MINECRAFT_1_16_2", "MINECRAFT_1_19_4", "MINECRAFT_1_20_2", "MINECRAFT_1_21"
+    })
+    public ProtocolVersion protocolVersion;
+    @Param({"JOIN_GAME", "CHUNK_DATA", "SET_PLAYER_POSITION_ROTATION", "KEEP_ALIVE"})
+    public BenchmarkPacket packet;
+
+    @Setup
+    public void setup() {
+      prepare(protocolVersion, packet);
+    }
+
+    @TearDown
+    public void tearDown() {
+      release();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ConfigState extends EncoderState {
+    // The configuration phase was introduced in 1.20.2
+    @Param({"MINECRAFT_1_20_2", "MINECRAFT_1_20_3", "MINECRAFT_1_20_5", "MINECRAFT_1_21"})
+    public ProtocolVersion protocolVersion;
+
+    @Setup
+    public void setup() {
+      prepare(protocolVersion, BenchmarkPacket.REGISTRY_DATA);
+    }
+
+    @TearDown
+    public void tearDown() {
+      release();
+    }
+  }
+
+  abstract static class EncoderState {
+    EmbeddedChannel channel;
+    ChannelHandlerContext ctx;
+    FallbackPacketEncoder encoder;
+    FallbackPacket[] packets;
+    ByteBuf out;
+
+    final void prepare(final @NotNull ProtocolVersion protocolVersion,
+                       final @NotNull BenchmarkPacket packet) {
+      encoder = new FallbackPacketEncoder(protocolVersion);
+      encoder.updateRegistry(packet.getRegistry());
+      channel = new EmbeddedChannel(encoder);
+      ctx = channel.pipeline().context(encoder);
+      packets = packet.create(protocolVersion);
+      out = PooledByteBufAllocator.DEFAULT.directBuffer();
+    }
+
+    final void release() {
+      out.release();
+      channel.finishAndReleaseAll();
+    }
+  }
+
+  @Benchmark
+  public int encodeGamePacket(final @NotNull GameState state) throws Exception {
+    return encode(state);
+  }
+
+  @Benchmark
+  public int encodeRegistryData(final @NotNull ConfigState state) throws Exception {
+    return encode(state);
+  }
+
+  private static int encode(final @NotNull EncoderState state) throws Exception {
+    state.out.clear();
+    for (final FallbackPacket packet : state.packets) {
+      state.encoder.encode(state.ctx, packet, state.out);
+    }
+    return state.out.writerIndex();
+  }
+}
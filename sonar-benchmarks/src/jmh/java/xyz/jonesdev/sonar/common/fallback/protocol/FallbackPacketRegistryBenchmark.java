@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package xyz.jonesdev.sonar.common.fallback.protocol;
+
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import org.openjdk.jmh.annotations.*;
+import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
+import xyz.jonesdev.sonar.common.fallback.protocol.packets.play.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.Direction.CLIENTBOUND;
+import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.Direction.SERVERBOUND;
+import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.GAME;
+
+/**
+ * Compares the array-based packet registry with the previous map-based implementation,
+ * which is reproduced here as the baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FallbackPacketRegistryBenchmark {
+  @Param({"MINECRAFT_1_8", "MINECRAFT_1_21"})
+  public ProtocolVersion protocolVersion;
+
+  private FallbackPacketRegistry.ProtocolRegistry clientbound, serverbound;
+  private FallbackPacket[] packets;
+  private int[] packetIds;
+
+  // The previous implementation used a HashMap for the packet IDs and an IntObjectHashMap for the suppliers
+  private final Map<Class<? extends FallbackPacket>, Integer> mapPacketClassToId = new HashMap<>(16, 0.5f);
+  private final IntObjectMap<Supplier<? extends FallbackPacket>> mapPacketIdToSupplier = new IntObjectHashMap<>(16, 0.5f);
+
+  @Setup
+  public void setup() {
+    clientbound = GAME.getProtocolRegistry(CLIENTBOUND, protocolVersion);
+    serverbound = GAME.getProtocolRegistry(SERVERBOUND, protocolVersion);
+
+    packets = new FallbackPacket[] {
+      new KeepAlivePacket(),
+      new JoinGamePacket(),
+      new ChunkDataPacket(),
+      new SetPlayerPositionRotation(),
+      new GameEventPacket()
+    };
+    for (final FallbackPacket packet : packets) {
+      mapPacketClassToId.put(packet.getClass(), clientbound.getPacketId(packet));
+    }
+
+    final FallbackPacket[] serverboundPackets = new FallbackPacket[] {
+      new KeepAlivePacket(),
+      new SetPlayerPositionRotation(),
+      new SetPlayerPositionPacket(),
+      new ClientInformationPacket(),
+      new PluginMessagePacket()
+    };
+    final Supplier<?>[] suppliers = new Supplier<?>[] {
+      KeepAlivePacket::new,
+      SetPlayerPositionRotation::new,
+      SetPlayerPositionPacket::new,
+      ClientInformationPacket::new,
+      PluginMessagePacket::new
+    };
+    packetIds = new int[serverboundPackets.length];
+    for (int i = 0; i < serverboundPackets.length; i++) {
+      packetIds[i] = serverbound.getPacketId(serverboundPackets[i]);
+      @SuppressWarnings("unchecked")
+      final Supplier<? extends FallbackPacket> supplier = (Supplier<? extends FallbackPacket>) suppliers[i];
+      mapPacketIdToSupplier.put(packetIds[i], supplier);
+    }
+  }
+
+  @Benchmark
+  public int getPacketId() {
+    int sum = 0;
+    for (final FallbackPacket packet : packets) {
+      sum += clientbound.getPacketId(packet);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public int getPacketIdBaseline() {
+    int sum = 0;
+    for (final FallbackPacket packet : packets) {
+      sum += mapPacketClassToId.getOrDefault(packet.getClass(), Integer.MIN_VALUE);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public int createPacket() {
+    int created = 0;
+    for (final int packetId : packetIds) {
+      if (serverbound.createPacket(packetId) != null) {
+        created++;
+      }
+    }
+    return created;
+  }
+
+  @Benchmark
+  public int createPacketBaseline() {
+    int created = 0;
+    for (final int packetId : packetIds) {
+      final Supplier<? extends FallbackPacket> supplier = mapPacketIdToSupplier.get(packetId);
+      if (supplier != null && supplier.get() != null) {
+        created++;
+      }
+    }
+    return created;
+  }
+}
@@ -19,6 +19,7 @@
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import net.md_5.bungee.BungeeCord;
 import net.md_5.bungee.netty.ChannelWrapper;
 import net.md_5.bungee.netty.HandlerBoss;
 import net.md_5.bungee.protocol.DefinedPacket;
@@ -52,11 +53,15 @@ public FallbackBungeeChannelHandler(final @NotNull Channel channel) {
     }
   }
 
+  @Override
+  protected int getCompressionThreshold() {
+    return BungeeCord.getInstance().getConfig().getCompressionThreshold();
+  }
+
   @Override
   public void channelRead(final @NotNull ChannelHandlerContext ctx, final Object msg) throws Exception {
-    // TODO: put this into a separate handler
     // Intercept any packets processed by BungeeCord
-    if (listenForPackets && msg instanceof PacketWrapper) {
+    if (msg instanceof PacketWrapper) {
       final PacketWrapper packetWrapper = (PacketWrapper) msg;
       final DefinedPacket wrappedPacket = packetWrapper.packet;
       // Don't handle any invalid packets
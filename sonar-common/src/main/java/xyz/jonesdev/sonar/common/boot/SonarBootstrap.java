@@ -18,8 +18,6 @@
 package xyz.jonesdev.sonar.common.boot;
 
 import com.alessiodp.libby.LibraryManager;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.Ticker;
 import com.j256.ormlite.logger.Level;
 import com.j256.ormlite.logger.Logger;
 import lombok.Getter;
@@ -43,7 +41,6 @@
 import xyz.jonesdev.sonar.common.update.UpdateChecker;
 
 import java.io.File;
-import java.time.Duration;
 
 @Getter
 @RequiredArgsConstructor
@@ -104,6 +101,9 @@ public final void initialize() {
     // Reload configuration
     reload();
 
+    // Restore the blacklist of the last session; expired entries are dropped
+    SonarServiceManager.loadBlacklist();
+
     getLogger().info("Successfully initialized components in {}s!", launchTimer);
     getLogger().info("Enabling all tasks and features...");
 
@@ -146,34 +146,21 @@ public final void reload() {
     getLogger().info("Taking cached snapshots of all packets...");
     FallbackPreparer.prepare();
 
-    // Update ratelimiter caches
-    getFallback().getRatelimiter().setAttemptCache(Caffeine.newBuilder()
-      .expireAfterWrite(Duration.ofMillis(getConfig().getVerification().getReconnectDelay()))
-      .ticker(Ticker.systemTicker())
-      .build());
-    getFallback().getRatelimiter().setFailCountCache(Caffeine.newBuilder()
-      .expireAfterWrite(Duration.ofMillis(getConfig().getVerification().getRememberTime()))
-      .ticker(Ticker.systemTicker())
-      .build());
-
-    // Update blacklist cache
-    final long blacklistTime = getConfig().getVerification().getBlacklistTime();
-    final boolean blacklistExists = getFallback().getBlacklist() != null;
-    // Make sure the blacklist is only set when we need it to prevent data loss
-    if (!blacklistExists // Make sure we create a new cache if it doesn't exist yet
-      || getFallback().getBlacklistTime() != blacklistTime) {
-      // Create a new cache with the configured blacklist time
-      getFallback().setBlacklist(Caffeine.newBuilder()
-        .expireAfterWrite(Duration.ofMillis(getConfig().getVerification().getBlacklistTime()))
-        .ticker(Ticker.systemTicker())
-        .build());
-      // Store the new blacklist time, so we don't have to reset the blacklist every reload
-      getFallback().setBlacklistTime(blacklistTime);
-      // Warn the user about changing the expiry of the blacklist values
-      if (blacklistExists) {
-        getLogger().warn("The blacklist has been reset as the duration of entries has changed.");
-      }
-    }
+    // Update the ratelimiter
+    getFallback().getRatelimiter().setReconnectDelay(getConfig().getVerification().getReconnectDelay());
+    getFallback().getRatelimiter().setSubnetLimit(getConfig().getVerification().getMaxSubnetAttempts());
+    getFallback().getRatelimiter().setGlobalLimit(getConfig().getVerification().getMaxGlobalAttempts());
+    getFallback().getRatelimiter().setRememberTime(getConfig().getVerification().getRememberTime());
+
+    // Update the blacklist time; every entry stores its own expiry deadline,
+    // so we don't have to reset the blacklist if the duration has changed.
+    getFallback().getBlacklist().setExpiry(getConfig().getVerification().getBlacklistTime());
+    getFallback().getBlacklist().setSubnetThreshold(getConfig().getVerification().getBlacklistSubnetThreshold());
+    getFallback().getBlacklist().setSubnetWindow(getConfig().getVerification().getBlacklistSubnetWindow());
+
+    // Update the limits of open connections
+    getFallback().getConnectionLimiter().setMaxPerAddress(getConfig().getMaxConnectionsPerIp());
+    getFallback().getConnectionLimiter().setMaxPerSubnet(getConfig().getMaxConnectionsPerSubnet());
 
     // Reinitialize database controller
     if (verifiedPlayerController != null) {
@@ -188,6 +175,8 @@ public final void shutdown() {
     getLogger().info("Starting shutdown process...");
     // Interrupt threads
     SonarServiceManager.stop();
+    // Save the blacklist, so we don't have to verify blacklisted bots again after restarting
+    SonarServiceManager.saveBlacklist();
     // Close database connection if present
     if (verifiedPlayerController != null) {
       verifiedPlayerController.close();
@@ -25,9 +25,11 @@
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.controller.VerifiedPlayerController;
 import xyz.jonesdev.sonar.api.fallback.Fallback;
 import xyz.jonesdev.sonar.api.fallback.FallbackUser;
 import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
+import xyz.jonesdev.sonar.common.fallback.injection.FallbackInjectedChannelInitializer;
 import xyz.jonesdev.sonar.common.statistics.GlobalSonarStatistics;
 import xyz.jonesdev.sonar.common.util.GeyserDetection;
 
@@ -35,18 +37,25 @@
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static xyz.jonesdev.sonar.api.fallback.FallbackPipelines.FALLBACK_BANDWIDTH;
 import static xyz.jonesdev.sonar.common.fallback.FallbackUserWrapper.customDisconnect;
 import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPreparer.*;
 
+/**
+ * Login interceptor that only looks at the handshake and login packets of a connection.
+ * It removes itself from the pipeline once the server has received the login packet
+ * or once the verification has replaced the handler of the server.
+ * Until then, it rejects every further login packet, so a client cannot send a second login
+ * packet to the server while it's waiting in the queue or being disconnected.
+ * The state of the connection is kept in a {@link FallbackLoginState}, which is released
+ * together with this handler.
+ */
 @RequiredArgsConstructor
 public class FallbackChannelHandlerAdapter extends ChannelInboundHandlerAdapter {
   protected final Channel channel;
-  protected @Nullable String username;
-  protected InetAddress inetAddress;
-  protected ProtocolVersion protocolVersion;
-  protected boolean listenForPackets = true;
+  private @Nullable FallbackLoginState state;
 
   protected static final Fallback FALLBACK = Sonar.get().getFallback();
 
@@ -54,29 +63,24 @@ public class FallbackChannelHandlerAdapter extends ChannelInboundHandlerAdapter
   public final void channelActive(final @NotNull ChannelHandlerContext ctx) throws Exception {
     // Increase connections per second for the action bar verbose
     GlobalSonarStatistics.countConnection();
+    // Count the connection of the IP address and its subnet for the top connection sources
+    if (ctx.channel().remoteAddress() instanceof InetSocketAddress) {
+      FALLBACK.getSources().count(((InetSocketAddress) ctx.channel().remoteAddress()).getAddress());
+    }
+    // Let the admission controller know which event loops the server is using
+    FALLBACK.getAdmission().track(ctx.channel().eventLoop());
     // Make sure to let the server handle the rest
     ctx.fireChannelActive();
   }
 
   @Override
-  public final void channelInactive(final @NotNull ChannelHandlerContext ctx) throws Exception {
-    // The player can disconnect without sending the login packet first
-    // Account for this by checking if the inetAddress has been set yet
-    if (inetAddress != null) {
-      // Remove the IP address from the connected players
-      FALLBACK.getConnected().compute(inetAddress, (key, value) -> null);
-      // Remove the IP address from the queue
-      FALLBACK.getQueue().getPlayers().compute(inetAddress, (key, value) -> null);
-      // Remove this account from the online players or decrement the number of accounts with the same IP
-      FALLBACK.getOnline().compute(inetAddress, (key, value) -> value == null || value <= 1 ? null : value - 1);
-    }
-    // Make sure to let the server handle the rest
-    ctx.fireChannelInactive();
+  public final void handlerRemoved(final @NotNull ChannelHandlerContext ctx) throws Exception {
+    // Release the state of the connection as soon as we're done with the login
+    state = null;
   }
 
   // We can override the default exceptionCaught method since this handler
   // will run before the connection knows that there has been an error.
-  // Additionally, this will also run after our custom decoder.
   @Override
   public final void exceptionCaught(final @NotNull ChannelHandlerContext ctx,
                                     final @NotNull Throwable cause) throws Exception {
@@ -84,6 +88,13 @@ public final void exceptionCaught(final @NotNull ChannelHandlerContext ctx,
     ctx.close();
   }
 
+  /**
+   * @return Compression threshold of the proxy or -1 if compression is disabled
+   */
+  protected int getCompressionThreshold() {
+    return -1;
+  }
+
   /**
    * Validates and handles incoming handshake packets
    *
@@ -96,11 +107,11 @@ protected final void handleHandshake(final @NotNull String hostname, final int p
       throw new CorruptedFrameException("Hostname is empty");
     }
     // Check if the player has already sent a handshake packet
-    if (protocolVersion != null) {
+    if (state != null) {
       throw new CorruptedFrameException("Already sent handshake");
     }
     // Store the protocol version
-    protocolVersion = ProtocolVersion.fromId(protocol);
+    state = new FallbackLoginState(ProtocolVersion.fromId(protocol));
     // Hook the traffic listener
     channel.pipeline().addFirst(FALLBACK_BANDWIDTH, FallbackBandwidthHandler.INSTANCE);
   }
@@ -121,50 +132,81 @@ protected final void handleLogin(final @NotNull ChannelHandlerContext ctx,
                                    final @NotNull String decoder,
                                    final @NotNull String timeout,
                                    final @NotNull String handler) throws Exception {
-    // Check if the player has already sent a login packet
-    if (this.username != null) {
+    final FallbackLoginState state = this.state;
+    // Check if the player has sent a handshake packet
+    if (state == null) {
+      throw new CorruptedFrameException("Did not send handshake");
+    }
+    // Check if the player has already sent a login packet; the server's handler is still
+    // in the pipeline, so we must never let a second login packet reach it.
+    if (state.username != null) {
       throw new CorruptedFrameException("Already sent login");
     }
+    final ProtocolVersion protocolVersion = state.protocolVersion;
     // Connections from unknown protocol versions will be discarded
     // as this is the safest way of handling unwanted connections
     if (protocolVersion.isUnknown()) {
       // Sonar does not support snapshots or Minecraft versions older than 1.7.2
       throw new CorruptedFrameException("Unknown protocol version");
     }
+    // Store the username, so the client can't send another login packet
+    state.username = username;
     // Increase joins per second for the action bar verbose
     GlobalSonarStatistics.countLogin();
-    // Store the username and IP address
-    this.username = username;
-    this.inetAddress = socketAddress.getAddress();
+
+    _handleLogin(ctx, loginPacket, username, socketAddress, protocolVersion, encoder, decoder, timeout, handler);
+  }
+
+  private void _handleLogin(final @NotNull ChannelHandlerContext ctx,
+                            final @NotNull Object loginPacket,
+                            final @NotNull String username,
+                            final @NotNull InetSocketAddress socketAddress,
+                            final @NotNull ProtocolVersion protocolVersion,
+                            final @NotNull String encoder,
+                            final @NotNull String decoder,
+                            final @NotNull String timeout,
+                            final @NotNull String handler) throws Exception {
+    final InetAddress inetAddress = socketAddress.getAddress();
+
+    // Clean up once the connection is closed; we use the close future instead of
+    // channelInactive, since this handler is removed once the player has logged in
+    channel.closeFuture().addListener(future -> {
+      // Remove the IP address from the connected players
+      FALLBACK.getConnected().remove(inetAddress);
+      // Remove the IP address from the queue
+      FALLBACK.getQueue().remove(inetAddress);
+      // Remove this account from the online players or decrement the number of accounts with the same IP
+      FALLBACK.getOnline().decrement(inetAddress);
+    });
 
     // Check the blacklist here since we cannot let the player "ghost join"
-    if (FALLBACK.getBlacklist().asMap().containsKey(inetAddress)) {
+    if (FALLBACK.getBlacklist().containsKey(inetAddress)) {
       customDisconnect(channel, protocolVersion, blacklisted, encoder, handler);
       return;
     }
 
     // Check if the player is already queued since we don't want bots to flood the queue
-    if (FALLBACK.getQueue().getPlayers().containsKey(inetAddress)) {
+    if (FALLBACK.getQueue().contains(inetAddress)) {
       customDisconnect(channel, protocolVersion, alreadyQueued, encoder, handler);
       return;
     }
 
     // Check if Fallback is already verifying a player with the same IP address
-    if (FALLBACK.getConnected().containsKey(inetAddress)) {
+    if (FALLBACK.getConnected().contains(inetAddress)) {
       customDisconnect(channel, protocolVersion, alreadyVerifying, encoder, handler);
       return;
     }
 
     // Don't continue the verification process if the verification is disabled
     if (!Sonar.get().getFallback().shouldVerifyNewPlayers()) {
-      initialLogin(ctx, loginPacket, encoder, handler);
+      initialLogin(ctx, loginPacket, inetAddress, protocolVersion, encoder, handler);
       return;
     }
 
     // Completely skip Geyser connections if configured
     final boolean geyser = GeyserDetection.isGeyserConnection(channel, socketAddress);
     if (geyser && !Sonar.get().getConfig().getVerification().isCheckGeyser()) {
-      initialLogin(ctx, loginPacket, encoder, handler);
+      initialLogin(ctx, loginPacket, inetAddress, protocolVersion, encoder, handler);
       return;
     }
 
@@ -178,11 +220,67 @@ protected final void handleLogin(final @NotNull ChannelHandlerContext ctx,
     // Make sure we actually have to verify the player
     final String offlineUUIDString = "OfflinePlayer:" + username;
     final UUID offlineUUID = UUID.nameUUIDFromBytes(offlineUUIDString.getBytes(StandardCharsets.UTF_8));
-    if (Sonar.get().getVerifiedPlayerController().has(inetAddress.toString(), offlineUUID)) {
-      initialLogin(ctx, loginPacket, encoder, handler);
+    final VerifiedPlayerController verifiedPlayers = Sonar.get().getVerifiedPlayerController();
+    if (verifiedPlayers.has(inetAddress, offlineUUID)) {
+      initialLogin(ctx, loginPacket, inetAddress, protocolVersion, encoder, handler);
       return;
     }
 
+    // If the cache doesn't know about all verified players (lazy mode or still loading),
+    // we have to look up the player before we can decide what to do with the login packet.
+    // Verified players must never be charged by the rate-limiter, so the lookup has to happen first.
+    if (verifiedPlayers.needsLookup()) {
+      final CompletableFuture<Boolean> verified = verifiedPlayers.hasAsync(inetAddress, offlineUUID);
+      if (!verified.isDone()) {
+        // Don't read any other packets from the client while we're waiting for the lookup
+        channel.config().setAutoRead(false);
+        // The lookup always completes within its latency budget, so we never wait for long
+        verified.whenCompleteAsync((result, throwable) -> {
+          channel.config().setAutoRead(true);
+          // The client might have disconnected in the meantime
+          if (!channel.isActive()) return;
+          if (Boolean.TRUE.equals(result)) {
+            // The login packet is a decoded packet, so we can still pass it on to the server
+            initialLogin(ctx, loginPacket, inetAddress, protocolVersion, encoder, handler);
+          } else {
+            handleUnverified(ctx, loginPacket, inetAddress, protocolVersion, username, offlineUUID, geyser,
+              encoder, decoder, timeout, handler);
+          }
+        }, channel.eventLoop());
+        return;
+      }
+      if (verified.join()) {
+        initialLogin(ctx, loginPacket, inetAddress, protocolVersion, encoder, handler);
+        return;
+      }
+    }
+
+    handleUnverified(ctx, loginPacket, inetAddress, protocolVersion, username, offlineUUID, geyser,
+      encoder, decoder, timeout, handler);
+  }
+
+  /**
+   * Rate-limits and queues a player who isn't verified yet
+   *
+   * @param ctx             Forwarded channel handler context
+   * @param loginPacket     Login packet sent by the client
+   * @param inetAddress     IP address of the client
+   * @param protocolVersion Protocol version of the client
+   * @param username        Username of the client
+   * @param offlineUUID     Offline mode UUID of the client
+   * @param geyser          Whether the client is connecting through Geyser
+   */
+  private void handleUnverified(final @NotNull ChannelHandlerContext ctx,
+                                final @NotNull Object loginPacket,
+                                final @NotNull InetAddress inetAddress,
+                                final @NotNull ProtocolVersion protocolVersion,
+                                final @NotNull String username,
+                                final @NotNull UUID offlineUUID,
+                                final boolean geyser,
+                                final @NotNull String encoder,
+                                final @NotNull String decoder,
+                                final @NotNull String timeout,
+                                final @NotNull String handler) {
     // Check if the IP address is currently being rate-limited
     if (!FALLBACK.getRatelimiter().attempt(inetAddress)) {
       customDisconnect(channel, protocolVersion, reconnectedTooFast, encoder, handler);
@@ -192,12 +290,38 @@ protected final void handleLogin(final @NotNull ChannelHandlerContext ctx,
     // Check if the protocol ID of the player is allowed to bypass verification
     if (Sonar.get().getConfig().getVerification().getWhitelistedProtocols()
       .contains(protocolVersion.getProtocol())) {
-      initialLogin(ctx, loginPacket, encoder, handler);
+      initialLogin(ctx, loginPacket, inetAddress, protocolVersion, encoder, handler);
       return;
     }
 
-    // Queue the connection for further processing
-    FALLBACK.getQueue().getPlayers().compute(inetAddress, (key, value) -> () -> {
+    queueVerification(inetAddress, protocolVersion, username, offlineUUID, geyser,
+      encoder, decoder, timeout, handler);
+  }
+
+  /**
+   * Queues the connection for the verification
+   *
+   * @param inetAddress     IP address of the client
+   * @param protocolVersion Protocol version of the client
+   * @param username        Username of the client
+   * @param offlineUUID     Offline mode UUID of the client
+   * @param geyser          Whether the client is connecting through Geyser
+   */
+  private void queueVerification(final @NotNull InetAddress inetAddress,
+                                 final @NotNull ProtocolVersion protocolVersion,
+                                 final @NotNull String username,
+                                 final @NotNull UUID offlineUUID,
+                                 final boolean geyser,
+                                 final @NotNull String encoder,
+                                 final @NotNull String decoder,
+                                 final @NotNull String timeout,
+                                 final @NotNull String handler) {
+    // Queue the connection for further processing; make sure not to capture
+    // this handler, since the verification removes it from the pipeline.
+    final Channel channel = this.channel;
+    final int compressionThreshold = getCompressionThreshold();
+    // The verification is started on the event loop of the channel, so we can take over the pipeline directly
+    FALLBACK.getQueue().offer(inetAddress, channel.eventLoop(), () -> {
       // Check if the username matches the valid name regex to prevent
       // UTF-16 names or other types of exploits
       if (!Sonar.get().getConfig().getVerification().getValidNameRegex()
@@ -207,7 +331,8 @@ protected final void handleLogin(final @NotNull ChannelHandlerContext ctx,
       }
 
       // Create an instance for the Fallback connection
-      final FallbackUser user = new FallbackUserWrapper(channel, inetAddress, protocolVersion, geyser);
+      final FallbackUser user = new FallbackUserWrapper(channel, inetAddress, protocolVersion, geyser,
+        compressionThreshold);
       // Let the verification handler take over the channel
       user.hijack(username, offlineUUID, encoder, decoder, timeout, handler);
     });
@@ -216,32 +341,42 @@ protected final void handleLogin(final @NotNull ChannelHandlerContext ctx,
   /**
    * Executes the maximum accounts per IP limit check before letting the player join
    *
-   * @param ctx         Forwarded channel handler context
-   * @param loginPacket Login packet sent by the client
+   * @param ctx             Forwarded channel handler context
+   * @param loginPacket     Login packet sent by the client
+   * @param inetAddress     IP address of the client
+   * @param protocolVersion Protocol version of the client
    */
-  protected final void initialLogin(final @NotNull ChannelHandlerContext ctx,
-                                    final @NotNull Object loginPacket,
-                                    final @NotNull String encoder,
-                                    final @NotNull String handler) throws Exception {
+  private void initialLogin(final @NotNull ChannelHandlerContext ctx,
+                            final @NotNull Object loginPacket,
+                            final @NotNull InetAddress inetAddress,
+                            final @NotNull ProtocolVersion protocolVersion,
+                            final @NotNull String encoder,
+                            final @NotNull String handler) {
     // Increment the number of accounts with the same IP
-    FALLBACK.getOnline().compute(inetAddress, (key, value) -> value == null ? 1 : value + 1);
+    final int onlinePerIp = FALLBACK.getOnline().increment(inetAddress);
 
     final int maxOnlinePerIp = Sonar.get().getConfig().getMaxOnlinePerIp();
     // Skip the maximum online per IP check if it's disabled in the configuration
     if (maxOnlinePerIp > 0) {
       // Check if the number of online players using the same IP address as
       // the connecting player is greater than the configured amount
-      final int onlinePerIp = FALLBACK.getOnline().getOrDefault(inetAddress, 0);
       if (onlinePerIp >= maxOnlinePerIp) {
         customDisconnect(channel, protocolVersion, tooManyOnlinePerIP, encoder, handler);
         return;
       }
     }
 
-    // Don't listen for further packets
-    // TODO: deject the pipeline without breaking disconnect logic
-    listenForPackets = false;
     // Let the server know about the login packet
     ctx.fireChannelRead(loginPacket);
+    // The player has logged in, so the connection doesn't count towards the connection limits anymore
+    FallbackInjectedChannelInitializer.releaseConnection(channel);
+    // The server has taken over the login, so we don't need to intercept any further packets
+    if (!ctx.isRemoved()) {
+      ctx.pipeline().remove(this);
+    }
+    // The player has been handed over to the server, so we don't need to count the traffic anymore
+    if (channel.pipeline().get(FALLBACK_BANDWIDTH) != null) {
+      channel.pipeline().remove(FALLBACK_BANDWIDTH);
+    }
   }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.common.fallback;
+
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
+
+/**
+ * State of a connection between its handshake and the moment Sonar or the server takes over the login.
+ * Only the login interceptor references this object, so it's released together with the interceptor.
+ */
+@RequiredArgsConstructor
+final class FallbackLoginState {
+  final @NotNull ProtocolVersion protocolVersion;
+  // Set once the client has sent its login packet
+  @Nullable String username;
+}
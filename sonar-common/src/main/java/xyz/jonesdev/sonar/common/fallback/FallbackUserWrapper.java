@@ -22,6 +22,7 @@
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelPipeline;
 import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
@@ -34,10 +35,12 @@
 import xyz.jonesdev.sonar.api.fallback.FallbackUser;
 import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
 import xyz.jonesdev.sonar.api.timer.SystemTimer;
+import xyz.jonesdev.sonar.common.fallback.injection.FallbackInjectedChannelInitializer;
 import xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacket;
 import xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketDecoder;
 import xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketEncoder;
 import xyz.jonesdev.sonar.common.fallback.protocol.FallbackPreparer;
+import xyz.jonesdev.sonar.common.fallback.protocol.packets.login.SetCompressionPacket;
 import xyz.jonesdev.sonar.common.fallback.protocol.packets.play.DisconnectPacket;
 import xyz.jonesdev.sonar.common.fallback.session.FallbackLoginSessionHandler;
 import xyz.jonesdev.sonar.common.statistics.GlobalSonarStatistics;
@@ -46,9 +49,12 @@
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import static xyz.jonesdev.sonar.api.fallback.FallbackPipelines.FALLBACK_FLUSH_CONSOLIDATION;
+import static xyz.jonesdev.sonar.api.fallback.FallbackPipelines.FALLBACK_HANDLER;
 import static xyz.jonesdev.sonar.api.fallback.FallbackPipelines.FALLBACK_PACKET_DECODER;
 import static xyz.jonesdev.sonar.api.fallback.FallbackPipelines.FALLBACK_PACKET_ENCODER;
 import static xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion.MINECRAFT_1_20_2;
+import static xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion.MINECRAFT_1_8;
 import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.CONFIG;
 import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.GAME;
 
@@ -64,17 +70,21 @@ public final class FallbackUserWrapper implements FallbackUser {
   @Setter
   private boolean receivedPluginMessage;
   private final boolean geyser;
+  private final int compressionThreshold;
   private final SystemTimer loginTimer = new SystemTimer();
 
   public FallbackUserWrapper(final @NotNull Channel channel,
                              final @NotNull InetAddress inetAddress,
                              final @NotNull ProtocolVersion protocolVersion,
-                             final boolean geyser) {
+                             final boolean geyser,
+                             final int compressionThreshold) {
     this.channel = channel;
     this.pipeline = channel.pipeline();
     this.inetAddress = inetAddress;
     this.protocolVersion = protocolVersion;
     this.geyser = geyser;
+    // Compression was only added in 1.8
+    this.compressionThreshold = protocolVersion.compareTo(MINECRAFT_1_8) >= 0 ? compressionThreshold : -1;
   }
 
   @Override
@@ -88,6 +98,18 @@ public void disconnect(final @NotNull Component reason) {
   public void hijack(final @NotNull String username, final @NotNull UUID uuid,
                      final @NotNull String encoder, final @NotNull String decoder,
                      final @NotNull String timeout, final @NotNull String handler) {
+    // Queued verifications are already started on the event loop of the channel,
+    // but we still need to make sure we never modify the pipeline from another thread.
+    if (!channel.eventLoop().inEventLoop()) {
+      channel.eventLoop().execute(() -> hijack(username, uuid, encoder, decoder, timeout, handler));
+      return;
+    }
+
+    // The player might have disconnected while being queued
+    if (!channel.isActive()) {
+      return;
+    }
+
     // The player has joined the verification
     GlobalSonarStatistics.totalAttemptedVerifications++;
 
@@ -107,38 +129,57 @@ public void hijack(final @NotNull String username, final @NotNull UUID uuid,
     // Call the VerifyJoinEvent for external API usage
     Sonar.get().getEventManager().publish(new UserVerifyJoinEvent(username, this));
 
-    // Mark the player as connected by caching them in a map of verifying players
-    Sonar.get().getFallback().getConnected().compute(inetAddress, (key, value) -> (byte) 0);
+    // Mark the player as connected by caching them in the table of verifying players
+    Sonar.get().getFallback().getConnected().put(inetAddress, 1);
 
-    channel.eventLoop().execute(() -> {
-      // Add better timeout handler to avoid known exploits or issues
-      // We also want to timeout bots quickly to avoid flooding
-      pipeline.replace(timeout, timeout, new FallbackTimeoutHandler(
-        Sonar.get().getConfig().getVerification().getReadTimeout(),
-        Sonar.get().getConfig().getVerification().getWriteTimeout(),
-        TimeUnit.MILLISECONDS));
+    // Merge all flushes during a read or event loop pass into a single flush,
+    // so we don't make a write syscall for every single packet we send.
+    pipeline.addFirst(FALLBACK_FLUSH_CONSOLIDATION, new FlushConsolidationHandler(
+      FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
 
-      // Replace normal encoder to allow custom packets
-      final FallbackPacketEncoder newEncoder = new FallbackPacketEncoder(protocolVersion);
-      pipeline.replace(encoder, FALLBACK_PACKET_ENCODER, newEncoder);
+    // Add better timeout handler to avoid known exploits or issues
+    // We also want to timeout bots quickly to avoid flooding
+    pipeline.replace(timeout, timeout, new FallbackTimeoutHandler(
+      Sonar.get().getConfig().getVerification().getReadTimeout(),
+      Sonar.get().getConfig().getVerification().getWriteTimeout(),
+      TimeUnit.MILLISECONDS));
 
-      // Remove the main pipeline to completely take over the channel
-      if (pipeline.get(handler) != null) {
-        pipeline.remove(handler);
-      }
+    // Replace normal encoder to allow custom packets
+    final FallbackPacketEncoder newEncoder = new FallbackPacketEncoder(protocolVersion);
+    pipeline.replace(encoder, FALLBACK_PACKET_ENCODER, newEncoder);
+
+    // Remove the main pipeline to completely take over the channel
+    if (pipeline.get(handler) != null) {
+      pipeline.remove(handler);
+    }
+    // The verification has taken over, so the connection doesn't count towards the connection limits anymore
+    FallbackInjectedChannelInitializer.releaseConnection(channel);
+    // The login packet can't reach the server anymore, so we don't need the login interceptor
+    if (pipeline.get(FALLBACK_HANDLER) != null) {
+      pipeline.remove(FALLBACK_HANDLER);
+    }
 
-      // Send LoginSuccess packet to make the client think they are joining the server
-      write(FallbackPreparer.LOGIN_SUCCESS);
+    // Enable compression just like the proxy would, so we can send our
+    // cached packets in their pre-compressed form to reduce the bandwidth
+    if (compressionThreshold >= 0) {
+      write(new SetCompressionPacket(compressionThreshold));
+      newEncoder.setCompressionThreshold(compressionThreshold);
+    }
+
+    // Send LoginSuccess packet to make the client think they are joining the server
+    write(FallbackPreparer.LOGIN_SUCCESS);
 
-      // The LoginSuccess packet has been sent, now we can change the registry state
-      newEncoder.updateRegistry(protocolVersion.compareTo(MINECRAFT_1_20_2) >= 0 ? CONFIG : GAME);
+    // The LoginSuccess packet has been sent, now we can change the registry state
+    newEncoder.updateRegistry(protocolVersion.compareTo(MINECRAFT_1_20_2) >= 0 ? CONFIG : GAME);
 
-      // Replace normal decoder to allow custom packets
-      final FallbackPacketDecoder fallbackPacketDecoder = new FallbackPacketDecoder(protocolVersion);
-      pipeline.replace(decoder, FALLBACK_PACKET_DECODER, fallbackPacketDecoder);
-      // Listen for all incoming packets by setting the packet listener
-      fallbackPacketDecoder.setListener(new FallbackLoginSessionHandler(this, username, uuid));
-    });
+    // Replace normal decoder to allow custom packets
+    final FallbackPacketDecoder fallbackPacketDecoder = new FallbackPacketDecoder(protocolVersion);
+    fallbackPacketDecoder.setCompressionThreshold(compressionThreshold);
+    fallbackPacketDecoder.setRecyclePackets(Sonar.get().getConfig().getVerification().isRecyclePackets());
+    fallbackPacketDecoder.setPacketBudget(Sonar.get().getConfig().getVerification().getMaxLoginPackets());
+    pipeline.replace(decoder, FALLBACK_PACKET_DECODER, fallbackPacketDecoder);
+    // Listen for all incoming packets by setting the packet listener
+    fallbackPacketDecoder.setListener(new FallbackLoginSessionHandler(this, username, uuid));
   }
 
   @Override
@@ -171,14 +212,9 @@ public void fail(final @NotNull String reason) {
       // The user is allowed to disable the blacklist entirely by setting the threshold to 0
       if (blacklistThreshold <= 0) break blacklist;
 
-      // Use 1 as the default amount of fails since we haven't cached anything yet
-      final int fails = Sonar.get().getFallback().getRatelimiter().getFailCountCache().get(inetAddress, ignored -> 1);
-      // Now we simply need to check if the threshold is reached
-      if (fails < blacklistThreshold) {
-        // Make sure we increment the number of fails
-        Sonar.get().getFallback().getRatelimiter().incrementFails(inetAddress, fails);
-        break blacklist;
-      }
+      // Increment the number of fails and check if the threshold is reached
+      final int fails = Sonar.get().getFallback().getRatelimiter().incrementFails(inetAddress);
+      if (fails < blacklistThreshold) break blacklist;
 
       // Call the BotBlacklistedEvent for external API usage
       Sonar.get().getEventManager().publish(new UserBlacklistedEvent(this));
@@ -186,7 +222,7 @@ public void fail(final @NotNull String reason) {
       // Increment number of total blacklisted players
       GlobalSonarStatistics.totalBlacklistedPlayers++;
 
-      Sonar.get().getFallback().getBlacklist().put(getInetAddress(), (byte) 0);
+      Sonar.get().getFallback().getBlacklist().put(getInetAddress());
 
       if (shouldLog) {
         Sonar.get().getFallback().getLogger().info(
@@ -195,8 +231,8 @@ public void fail(final @NotNull String reason) {
             .replace("<protocol>", String.valueOf(getProtocolVersion().getProtocol())));
       }
 
-      // Invalidate the cached entry to ensure memory safety
-      Sonar.get().getFallback().getRatelimiter().getFailCountCache().invalidate(inetAddress);
+      // Reset the number of fails to ensure memory safety
+      Sonar.get().getFallback().getRatelimiter().resetFails(inetAddress);
     }
 
     // Throw an exception to avoid further code execution
@@ -18,19 +18,30 @@
 package xyz.jonesdev.sonar.common.fallback.injection;
 
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.util.AttributeKey;
 import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.ReflectiveOperationException;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.config.SonarConfiguration;
+import xyz.jonesdev.sonar.api.fallback.FallbackConnectionLimiter;
+import xyz.jonesdev.sonar.common.fallback.protocol.FallbackPreparer;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.function.Consumer;
 
 @RequiredArgsConstructor
 public final class FallbackInjectedChannelInitializer extends ChannelInitializer<Channel> {
   private static final MethodHandle INIT_CHANNEL_METHOD;
+  // IP address the connection limiter has counted the channel for
+  private static final AttributeKey<InetAddress> LIMITED_ADDRESS = AttributeKey.valueOf("sonar-limited-address");
 
   static {
     try {
@@ -46,6 +57,15 @@ public final class FallbackInjectedChannelInitializer extends ChannelInitializer
 
   @Override
   protected void initChannel(final Channel channel) throws Exception {
+    // Don't let the server set up the pipeline for blacklisted IP addresses at all
+    if (rejectBlacklisted(channel)) {
+      return;
+    }
+    // Don't let a single IP address or subnet hold too many connections
+    if (!acquireConnection(channel)) {
+      return;
+    }
+
     // Invoke the original method
     try {
       INIT_CHANNEL_METHOD.invokeExact(originalChannelInitializer, channel);
@@ -58,4 +78,52 @@ protected void initChannel(final Channel channel) throws Exception {
       sonarPipelineInjector.accept(channel.pipeline());
     }
   }
+
+  private static boolean acquireConnection(final @NotNull Channel channel) {
+    if (!(channel.remoteAddress() instanceof InetSocketAddress)) {
+      return true;
+    }
+    final InetAddress inetAddress = ((InetSocketAddress) channel.remoteAddress()).getAddress();
+    final FallbackConnectionLimiter connectionLimiter = Sonar.get().getFallback().getConnectionLimiter();
+    if (!connectionLimiter.tryAcquire(inetAddress)) {
+      channel.config().setAutoRead(false);
+      channel.close();
+      return false;
+    }
+    channel.attr(LIMITED_ADDRESS).set(inetAddress);
+    // Release the connection if the channel is closed before it has finished logging in
+    channel.closeFuture().addListener(future -> releaseConnection(channel));
+    return true;
+  }
+
+  /**
+   * Stops counting the channel towards the connection limits; this is called once
+   * the player has logged in or the verification has taken over the channel.
+   * Calling this method more than once doesn't do anything.
+   */
+  public static void releaseConnection(final @NotNull Channel channel) {
+    final InetAddress inetAddress = channel.attr(LIMITED_ADDRESS).getAndSet(null);
+    if (inetAddress != null) {
+      Sonar.get().getFallback().getConnectionLimiter().release(inetAddress);
+    }
+  }
+
+  private static boolean rejectBlacklisted(final @NotNull Channel channel) {
+    final SonarConfiguration.Verification.EarlyBlacklistCheck earlyBlacklistCheck =
+      Sonar.get().getConfig().getVerification().getEarlyBlacklistCheck();
+    if (earlyBlacklistCheck == SonarConfiguration.Verification.EarlyBlacklistCheck.NONE
+      || !(channel.remoteAddress() instanceof InetSocketAddress)
+      || !Sonar.get().getFallback().getBlacklist().containsKey(((InetSocketAddress) channel.remoteAddress()).getAddress())) {
+      return false;
+    }
+    // The pipeline is empty, so there is nothing that could handle incoming data
+    channel.config().setAutoRead(false);
+    if (earlyBlacklistCheck == SonarConfiguration.Verification.EarlyBlacklistCheck.DISCONNECT) {
+      // The client reads the disconnect message once it has sent its login packet
+      channel.writeAndFlush(FallbackPreparer.blacklistedFrame.duplicate()).addListener(ChannelFutureListener.CLOSE);
+    } else {
+      channel.close();
+    }
+    return true;
+  }
 }
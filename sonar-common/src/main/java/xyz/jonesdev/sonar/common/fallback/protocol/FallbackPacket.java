@@ -35,6 +35,8 @@ public interface FallbackPacket {
    *
    * @param byteBuf         ByteBuf
    * @param protocolVersion Protocol version of the player
+   * @implNote Implementations must overwrite all fields,
+   * since the decoder might reuse the same packet instance
    */
   void decode(final ByteBuf byteBuf, final ProtocolVersion protocolVersion) throws Exception;
 
@@ -23,12 +23,19 @@
 import io.netty.handler.codec.CorruptedFrameException;
 import lombok.Setter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
+import xyz.jonesdev.sonar.api.timer.SystemTimer;
+import xyz.jonesdev.sonar.common.util.CompressionUtil;
+
+import java.util.Arrays;
+import java.util.zip.Inflater;
 
 import static xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion.MINECRAFT_1_20_2;
 import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.Direction.SERVERBOUND;
 import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.GAME;
 import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.LOGIN;
+import static xyz.jonesdev.sonar.common.util.CompressionUtil.MAXIMUM_UNCOMPRESSED_SIZE;
 import static xyz.jonesdev.sonar.common.util.ProtocolUtil.readVarInt;
 
 public final class FallbackPacketDecoder extends ChannelInboundHandlerAdapter {
@@ -36,6 +43,28 @@ public final class FallbackPacketDecoder extends ChannelInboundHandlerAdapter {
   private FallbackPacketRegistry.ProtocolRegistry registry;
   @Setter
   private FallbackPacketListener listener;
+  @Setter
+  private int compressionThreshold = -1;
+  private Inflater inflater;
+  /**
+   * If enabled, the decoder reuses one packet instance per packet type instead
+   * of creating a new packet for every incoming message.
+   * This means that listeners must not keep a reference to a packet after handling it.
+   */
+  @Setter
+  private boolean recyclePackets;
+  // Reusable packet instances indexed by the type ID of the packet
+  private FallbackPacket[] recycledPackets = new FallbackPacket[0];
+  /**
+   * Maximum number of packets the client is allowed to send per state within
+   * {@link FallbackPacketDecoder#PACKET_BUDGET_WINDOW}; 0 disables the limit.
+   */
+  @Setter
+  private int packetBudget;
+  private int receivedPackets;
+  private final SystemTimer packetBudgetTimer = new SystemTimer();
+
+  private static final long PACKET_BUDGET_WINDOW = 1000L;
 
   public FallbackPacketDecoder(final @NotNull ProtocolVersion protocolVersion) {
     this.protocolVersion = protocolVersion;
@@ -44,13 +73,17 @@ public FallbackPacketDecoder(final @NotNull ProtocolVersion protocolVersion) {
 
   public void updateRegistry(final @NotNull FallbackPacketRegistry registry) {
     this.registry = registry.getProtocolRegistry(SERVERBOUND, protocolVersion);
+    // Every state has its own packet budget
+    receivedPackets = 0;
+    packetBudgetTimer.reset();
   }
 
   @Override
   public void channelRead(final @NotNull ChannelHandlerContext ctx,
                           final @NotNull Object msg) throws Exception {
     if (msg instanceof ByteBuf) {
-      final ByteBuf byteBuf = (ByteBuf) msg;
+      ByteBuf byteBuf = (ByteBuf) msg;
+      ByteBuf decompressed = null;
 
       try {
         // Release the ByteBuf if the connection is not active
@@ -60,9 +93,24 @@ public void channelRead(final @NotNull ChannelHandlerContext ctx,
           return;
         }
 
+        // Close the connection if the client is flooding us with packets.
+        // We do this before decoding the packet, so we don't waste any resources on it.
+        if (exceedsPacketBudget()) {
+          ctx.close();
+          return;
+        }
+
+        // Decompress the packet if the client has to use compression
+        if (compressionThreshold >= 0) {
+          decompressed = decompress(ctx, byteBuf);
+          if (decompressed != null) {
+            byteBuf = decompressed;
+          }
+        }
+
         // Read the packet ID and then create the packet from it
         final int packetId = readVarInt(byteBuf);
-        final FallbackPacket packet = registry.createPacket(packetId);
+        final FallbackPacket packet = recyclePackets ? getRecycledPacket(packetId) : registry.createPacket(packetId);
 
         // Skip the packet if it's not registered within Sonar's packet registry
         if (packet == null) {
@@ -93,11 +141,84 @@ public void channelRead(final @NotNull ChannelHandlerContext ctx,
         ctx.fireChannelRead(packet);
       } finally {
         // Release the ByteBuf to avoid memory leaks
-        byteBuf.release();
+        ((ByteBuf) msg).release();
+        if (decompressed != null) {
+          decompressed.release();
+        }
       }
     }
   }
 
+  private boolean exceedsPacketBudget() {
+    if (packetBudget <= 0) {
+      return false;
+    }
+    // Start a new window if the previous one has passed
+    if (packetBudgetTimer.elapsed(PACKET_BUDGET_WINDOW)) {
+      packetBudgetTimer.reset();
+      receivedPackets = 0;
+    }
+    return ++receivedPackets > packetBudget;
+  }
+
+  private FallbackPacket getRecycledPacket(final int packetId) {
+    final int typeId = registry.getTypeId(packetId);
+    // Skip the packet if it's not registered within Sonar's packet registry
+    if (typeId == -1) {
+      return null;
+    }
+    if (typeId >= recycledPackets.length) {
+      recycledPackets = Arrays.copyOf(recycledPackets, typeId + 1);
+    }
+    FallbackPacket packet = recycledPackets[typeId];
+    if (packet == null) {
+      packet = registry.createPacket(packetId);
+      recycledPackets[typeId] = packet;
+    }
+    // Every packet overwrites all of its fields when decoding,
+    // so we don't need to reset the packet before reusing it
+    return packet;
+  }
+
+  /**
+   * @return Buffer containing the uncompressed packet data or null if the packet isn't compressed
+   */
+  private @Nullable ByteBuf decompress(final @NotNull ChannelHandlerContext ctx,
+                                       final @NotNull ByteBuf byteBuf) throws Exception {
+    final int uncompressedSize = readVarInt(byteBuf);
+    // The client doesn't compress packets that are smaller than the threshold
+    if (uncompressedSize == 0) {
+      return null;
+    }
+    if (uncompressedSize < compressionThreshold) {
+      throw new CorruptedFrameException("Uncompressed size is smaller than the threshold");
+    }
+    if (uncompressedSize > MAXIMUM_UNCOMPRESSED_SIZE) {
+      throw new CorruptedFrameException("Uncompressed size is too large");
+    }
+    if (inflater == null) {
+      inflater = new Inflater();
+    }
+    return CompressionUtil.decompress(inflater, byteBuf, uncompressedSize, ctx.alloc());
+  }
+
+  // The login interceptor has already been removed from the pipeline at this point,
+  // so we have to make sure to close the channel if we encounter any errors.
+  @Override
+  public void exceptionCaught(final @NotNull ChannelHandlerContext ctx,
+                              final @NotNull Throwable cause) throws Exception {
+    ctx.close();
+  }
+
+  @Override
+  public void handlerRemoved(final ChannelHandlerContext ctx) throws Exception {
+    // Make sure to free the native memory of the inflater
+    if (inflater != null) {
+      inflater.end();
+    }
+    super.handlerRemoved(ctx);
+  }
+
   private void checkPacketSize(final @NotNull ByteBuf byteBuf,
                                final @NotNull FallbackPacket packet) throws Exception {
     final int expectedMaxLen = packet.expectedMaxLength(byteBuf, protocolVersion);
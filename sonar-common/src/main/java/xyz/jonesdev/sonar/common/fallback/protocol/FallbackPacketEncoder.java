@@ -19,13 +19,18 @@
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
 import lombok.Getter;
+import lombok.Setter;
 import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
 
+import java.util.zip.Deflater;
+
 import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.Direction.CLIENTBOUND;
 import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.LOGIN;
+import static xyz.jonesdev.sonar.common.util.CompressionUtil.compress;
 import static xyz.jonesdev.sonar.common.util.ProtocolUtil.writeVarInt;
 
 public final class FallbackPacketEncoder extends MessageToByteEncoder<FallbackPacket> {
@@ -33,6 +38,9 @@ public final class FallbackPacketEncoder extends MessageToByteEncoder<FallbackPa
   @Getter
   private FallbackPacketRegistry packetRegistry;
   private FallbackPacketRegistry.ProtocolRegistry protocolRegistry;
+  @Setter
+  private int compressionThreshold = -1;
+  private Deflater deflater;
 
   public FallbackPacketEncoder(final ProtocolVersion protocolVersion) {
     this.protocolVersion = protocolVersion;
@@ -44,14 +52,65 @@ public void updateRegistry(final @NotNull FallbackPacketRegistry packetRegistry)
     this.protocolRegistry = packetRegistry.getProtocolRegistry(CLIENTBOUND, protocolVersion);
   }
 
+  @Override
+  public void write(final ChannelHandlerContext ctx,
+                    final Object msg,
+                    final ChannelPromise promise) throws Exception {
+    // Cached packets already contain the packet ID, so we can skip
+    // the encoding process entirely and don't need to allocate a new buffer.
+    if (msg instanceof FallbackPacketSnapshot) {
+      ctx.write(((FallbackPacketSnapshot) msg).getFramedBuffer(packetRegistry, protocolVersion, compressionThreshold), promise);
+      return;
+    }
+    super.write(ctx, msg, promise);
+  }
+
   @Override
   protected void encode(final ChannelHandlerContext ctx,
                         final @NotNull FallbackPacket packet,
                         final ByteBuf out) throws Exception {
-    final FallbackPacket originalPacket = packet instanceof FallbackPacketSnapshot
-      ? ((FallbackPacketSnapshot) packet).getOriginalPacket() : packet;
-    final int packetId = protocolRegistry.getPacketId(originalPacket);
+    final int packetId = protocolRegistry.getPacketId(packet);
+
+    if (compressionThreshold < 0) {
+      writeVarInt(out, packetId);
+      packet.encode(out, protocolVersion);
+      return;
+    }
+
+    // Packets below the threshold are sent with a data length of 0, which is always a single byte.
+    // This means we can reserve that byte and write the packet directly into the output buffer.
+    final int start = out.writerIndex();
+    out.writeByte(0);
     writeVarInt(out, packetId);
     packet.encode(out, protocolVersion);
+    final int uncompressedSize = out.writerIndex() - start - 1;
+    if (uncompressedSize < compressionThreshold) {
+      return;
+    }
+
+    // Most packets we send are either cached or too small to be compressed, so this rarely happens.
+    // The deflater cannot compress the data in place, so we have to move it out of the output buffer first.
+    final ByteBuf uncompressed = ctx.alloc().heapBuffer(uncompressedSize, uncompressedSize);
+    try {
+      uncompressed.writeBytes(out, start + 1, uncompressedSize);
+      out.writerIndex(start);
+      // Reuse the same deflater for all packets of this connection
+      if (deflater == null) {
+        deflater = new Deflater();
+      }
+      compress(deflater, uncompressed, out, compressionThreshold);
+    } finally {
+      uncompressed.release();
+    }
+  }
+
+  @Override
+  public void handlerRemoved(final ChannelHandlerContext ctx) throws Exception {
+    // Make sure to free the native memory of the deflater
+    if (deflater != null) {
+      deflater.end();
+      deflater = null;
+    }
+    super.handlerRemoved(ctx);
   }
 }
@@ -26,6 +26,9 @@ public interface FallbackPacketListener {
    * Handles the incoming packet
    *
    * @param packet Packet to handle
+   * @apiNote The decoder might reuse the same packet instance for the next packet
+   * of the same type (if packet recycling is enabled), so implementations must not
+   * keep a reference to the packet or any of its mutable fields after this method returns.
    */
   void handle(final @NotNull FallbackPacket packet);
 }
@@ -17,8 +17,6 @@
 
 package xyz.jonesdev.sonar.common.fallback.protocol;
 
-import io.netty.util.collection.IntObjectHashMap;
-import io.netty.util.collection.IntObjectMap;
 import lombok.AccessLevel;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
@@ -28,6 +26,7 @@
 import xyz.jonesdev.sonar.common.fallback.protocol.packets.configuration.RegistryDataPacket;
 import xyz.jonesdev.sonar.common.fallback.protocol.packets.login.LoginAcknowledgedPacket;
 import xyz.jonesdev.sonar.common.fallback.protocol.packets.login.LoginSuccessPacket;
+import xyz.jonesdev.sonar.common.fallback.protocol.packets.login.SetCompressionPacket;
 import xyz.jonesdev.sonar.common.fallback.protocol.packets.play.*;
 
 import java.util.*;
@@ -44,6 +43,8 @@ public enum FallbackPacketRegistry {
         map(0x00, MINECRAFT_1_7_2, true));
       clientbound.register(LoginSuccessPacket.class, LoginSuccessPacket::new,
         map(0x02, MINECRAFT_1_7_2, true));
+      clientbound.register(SetCompressionPacket.class, SetCompressionPacket::new,
+        map(0x03, MINECRAFT_1_8, true));
 
       serverbound.register(LoginAcknowledgedPacket.class, LoginAcknowledgedPacket::new,
         map(0x03, MINECRAFT_1_20_2, false));
@@ -570,21 +571,22 @@ <P extends FallbackPacket> void register(final Class<P> clazz,
             throw new IllegalArgumentException("Unknown protocol version " + from);
           }
 
-          if (registry.packetIdToSupplier.containsKey(current.id)) {
+          if (registry.getSupplier(current.id) != null) {
             throw new IllegalArgumentException("Can not register class " + clazz.getSimpleName()
               + " with id " + current.id + " for " + registry.protocolVersion
               + " because another packet is already registered");
           }
 
-          if (registry.packetClassToId.containsKey(clazz)) {
+          final int typeId = FallbackPacketType.getTypeId(clazz);
+          if (registry.getPacketId(typeId) != -1) {
             throw new IllegalArgumentException(clazz.getSimpleName()
               + " is already registered for version " + registry.protocolVersion);
           }
 
           if (!current.encodeOnly) {
-            registry.packetIdToSupplier.put(current.id, packetSupplier);
+            registry.setSupplier(current.id, typeId, packetSupplier);
           }
-          registry.packetClassToId.put(clazz, current.id);
+          registry.setPacketId(typeId, current.id);
         }
       }
     }
@@ -599,28 +601,67 @@ private static ProtocolVersion getProtocolVersion(final @NotNull PacketMapping c
   @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
   public static class ProtocolRegistry {
     private final ProtocolVersion protocolVersion;
-    private final IntObjectMap<Supplier<? extends FallbackPacket>> packetIdToSupplier =
-      new IntObjectHashMap<>(16, 0.5f);
-    private final Map<Class<? extends FallbackPacket>, Integer> packetClassToId =
-      new HashMap<>(16, 0.5f);
+    // Both tables are only resized while the packets are being registered
+    // Packet suppliers and type IDs indexed by the packet ID
+    private Supplier<?>[] packetIdToSupplier = new Supplier<?>[0];
+    private int[] packetIdToType = new int[0];
+    // Packet IDs indexed by the type ID of the packet (-1 if not registered)
+    private int[] packetTypeToId = new int[0];
 
     public FallbackPacket createPacket(final int id) {
-      final Supplier<? extends FallbackPacket> supplier = packetIdToSupplier.get(id);
+      final Supplier<?> supplier = getSupplier(id);
 
       if (supplier == null) {
         return null;
       }
-      return supplier.get();
+      return (FallbackPacket) supplier.get();
     }
 
     public int getPacketId(final @NotNull FallbackPacket packet) {
-      final int id = packetClassToId.getOrDefault(packet.getClass(), Integer.MIN_VALUE);
+      final int id = getPacketId(FallbackPacketType.getTypeId(packet));
 
-      if (id == Integer.MIN_VALUE) {
+      if (id == -1) {
         throw new IllegalArgumentException("Could not find packet");
       }
       return id;
     }
+
+    /**
+     * @param id Packet ID sent by the client
+     * @return Type ID of the packet or -1 if the packet is not registered
+     */
+    public int getTypeId(final int id) {
+      return id >= 0 && id < packetIdToType.length ? packetIdToType[id] : -1;
+    }
+
+    private Supplier<?> getSupplier(final int id) {
+      // The client can send any packet ID, so make sure we don't go out of bounds
+      return id >= 0 && id < packetIdToSupplier.length ? packetIdToSupplier[id] : null;
+    }
+
+    private void setSupplier(final int id, final int typeId, final @NotNull Supplier<?> supplier) {
+      if (id >= packetIdToSupplier.length) {
+        final int previousLength = packetIdToSupplier.length;
+        packetIdToSupplier = Arrays.copyOf(packetIdToSupplier, id + 1);
+        packetIdToType = Arrays.copyOf(packetIdToType, id + 1);
+        Arrays.fill(packetIdToType, previousLength, packetIdToType.length, -1);
+      }
+      packetIdToSupplier[id] = supplier;
+      packetIdToType[id] = typeId;
+    }
+
+    private int getPacketId(final int typeId) {
+      return typeId < packetTypeToId.length ? packetTypeToId[typeId] : -1;
+    }
+
+    private void setPacketId(final int typeId, final int id) {
+      if (typeId >= packetTypeToId.length) {
+        final int previousLength = packetTypeToId.length;
+        packetTypeToId = Arrays.copyOf(packetTypeToId, typeId + 1);
+        Arrays.fill(packetTypeToId, previousLength, packetTypeToId.length, -1);
+      }
+      packetTypeToId[typeId] = id;
+    }
   }
 
   @Data
@@ -21,26 +21,60 @@
 import io.netty.buffer.Unpooled;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import xyz.jonesdev.sonar.api.Sonar;
 import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.Deflater;
 
 import static xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion.ID_TO_PROTOCOL_CONSTANT;
+import static xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion.MINECRAFT_1_7_2;
+import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.Direction.CLIENTBOUND;
+import static xyz.jonesdev.sonar.common.util.CompressionUtil.compress;
+import static xyz.jonesdev.sonar.common.util.ProtocolUtil.writeVarInt;
 
 // Mostly taken from
 // https://github.com/Nan1t/NanoLimbo/blob/main/src/main/java/ua/nanit/limbo/protocol/PacketSnapshot.java
-@Getter
 public final class FallbackPacketSnapshot implements FallbackPacket {
-  private final Map<Integer, Integer> mappings = new HashMap<>(ID_TO_PROTOCOL_CONSTANT.size());
-  private final Map<Integer, byte[]> cachedBytes = new HashMap<>(ID_TO_PROTOCOL_CONSTANT.size());
+  private static final int VERSIONS = ProtocolVersion.values().length;
+  private static final int REGISTRIES = FallbackPacketRegistry.values().length;
+
+  // Packet ID and payload; used if compression is disabled
+  private static final int FRAMED = 0;
+  // Packet ID and payload prefixed by a data length of 0; used if the packet is smaller than the threshold
+  private static final int UNCOMPRESSED = 1;
+  // Compressed packet ID and payload prefixed by the data length; used if the packet exceeds the threshold
+  private static final int COMPRESSED = 2;
+  private static final int VARIANTS = 3;
+
+  // Encoded packet data (without the packet ID) indexed by the ordinal of the protocol version
+  private final ByteBuf[] payloads = new ByteBuf[VERSIONS];
+  // Encoded packet data indexed by the variant, registry, and protocol version.
+  // We only create these once they are actually needed, since most attacks only use a few versions.
+  private final AtomicReferenceArray<ByteBuf> framed = new AtomicReferenceArray<>(VARIANTS * REGISTRIES * VERSIONS);
+  @Getter
   private final FallbackPacket originalPacket;
 
   public FallbackPacketSnapshot(final @NotNull FallbackPacket originalPacket) {
-    final Map<Integer, Integer> hashes = new HashMap<>(ID_TO_PROTOCOL_CONSTANT.size());
+    this(originalPacket, MINECRAFT_1_7_2);
+  }
+
+  /**
+   * @param originalPacket Packet to cache
+   * @param minimumVersion Oldest protocol version the packet is sent to; older versions are not cached
+   */
+  public FallbackPacketSnapshot(final @NotNull FallbackPacket originalPacket,
+                                final @NotNull ProtocolVersion minimumVersion) {
+    final Map<ByteBuf, ByteBuf> deduplicated = new HashMap<>(ID_TO_PROTOCOL_CONSTANT.size());
 
     for (final ProtocolVersion protocolVersion : ID_TO_PROTOCOL_CONSTANT.values()) {
+      if (protocolVersion.compareTo(minimumVersion) < 0) {
+        continue;
+      }
       // Allocate a buffer for each protocol version
       final ByteBuf byteBuf = Unpooled.buffer();
       try {
@@ -48,42 +82,157 @@ public FallbackPacketSnapshot(final @NotNull FallbackPacket originalPacket) {
       } catch (Exception exception) {
         Sonar.get().getLogger().error("Could not encode packet {} for version {}: {}",
           originalPacket.toString(), protocolVersion, exception);
+        byteBuf.release();
         break;
       }
 
       // Make sure we don't unnecessarily fill the RAM
-      final int protocol = protocolVersion.getProtocol();
-      final int hash = byteBuf.hashCode();
-      final int hashed = hashes.getOrDefault(hash, -1);
-      if (hashed != -1) {
-        mappings.put(protocol, hashed);
-      } else {
-        hashes.put(hash, protocol);
-        mappings.put(protocol, protocol);
-        // Cache the raw bytes of the encoded packet
-        final byte[] bytes = new byte[byteBuf.readableBytes()];
-        byteBuf.readBytes(bytes);
-        cachedBytes.put(protocol, bytes);
+      // by reusing the same buffer for identical data
+      ByteBuf payload = deduplicated.get(byteBuf);
+      if (payload == null) {
+        payload = toCachedBuffer(byteBuf);
+        deduplicated.put(payload, payload);
       }
+      payloads[protocolVersion.ordinal()] = payload;
       // Make sure to release the buffer to avoid memory leaks
       byteBuf.release();
     }
     this.originalPacket = originalPacket;
   }
 
-  @Override
-  public void encode(final @NotNull ByteBuf byteBuf,
-                     final @NotNull ProtocolVersion protocolVersion) throws Exception {
-    final int hash = mappings.get(protocolVersion.getProtocol());
-    final byte[] bytes = cachedBytes.get(hash);
+  /**
+   * Copies the readable bytes of the given buffer into a read-only direct buffer.
+   * The memory is backed by a JDK direct buffer, so it is freed by the garbage collector
+   * once the snapshot is no longer referenced (e.g. after reloading Sonar).
+   * The buffer is also unreleasable, so it can be shared between all channels
+   * without having to update the reference count on every write.
+   */
+  private static @NotNull ByteBuf toCachedBuffer(final @NotNull ByteBuf byteBuf) {
+    final ByteBuf directBuf = Unpooled.wrappedBuffer(ByteBuffer.allocateDirect(byteBuf.readableBytes()));
+    directBuf.clear();
+    directBuf.writeBytes(byteBuf, byteBuf.readerIndex(), byteBuf.readableBytes());
+    return Unpooled.unreleasableBuffer(directBuf.asReadOnly());
+  }
 
-    if (bytes != null) {
-      byteBuf.writeBytes(bytes);
-    } else {
+  private @NotNull ByteBuf getPayload(final @NotNull ProtocolVersion protocolVersion) {
+    final ByteBuf payload = payloads[protocolVersion.ordinal()];
+    if (payload == null) {
       Sonar.get().getLogger().error("Could not find cached packet {} for version {}",
         toString(), protocolVersion);
       throw new IllegalStateException("Unable to find cached packet. Contact the developer!");
     }
+    return payload;
+  }
+
+  /**
+   * @param packetRegistry  Current registry (state) of the encoder
+   * @param protocolVersion Protocol version of the player
+   * @return Read-only view of the encoded packet including its packet ID,
+   * which can be written to the channel directly without going through the encoder
+   */
+  public @NotNull ByteBuf getFramedBuffer(final @NotNull FallbackPacketRegistry packetRegistry,
+                                          final @NotNull ProtocolVersion protocolVersion) {
+    return getFramedBuffer(packetRegistry, protocolVersion, -1);
+  }
+
+  /**
+   * @param packetRegistry       Current registry (state) of the encoder
+   * @param protocolVersion      Protocol version of the player
+   * @param compressionThreshold Compression threshold of the connection or -1 if compression is disabled
+   * @return Read-only view of the encoded packet in the format the connection expects,
+   * which can be written to the channel directly without going through the encoder
+   */
+  public @NotNull ByteBuf getFramedBuffer(final @NotNull FallbackPacketRegistry packetRegistry,
+                                          final @NotNull ProtocolVersion protocolVersion,
+                                          final int compressionThreshold) {
+    final ByteBuf cached = getCachedBuffer(FRAMED, packetRegistry, protocolVersion);
+    if (compressionThreshold < 0) {
+      // Every channel gets its own reader and writer indexes
+      return cached.retainedDuplicate();
+    }
+    // The compressed variant does not depend on the actual threshold, so we only need
+    // to decide whether the packet is large enough to be compressed for this connection
+    final int variant = cached.readableBytes() < compressionThreshold ? UNCOMPRESSED : COMPRESSED;
+    return getCachedBuffer(variant, packetRegistry, protocolVersion).retainedDuplicate();
+  }
+
+  private @NotNull ByteBuf getCachedBuffer(final int variant,
+                                           final @NotNull FallbackPacketRegistry packetRegistry,
+                                           final @NotNull ProtocolVersion protocolVersion) {
+    final int index = (variant * REGISTRIES + packetRegistry.ordinal()) * VERSIONS + protocolVersion.ordinal();
+    ByteBuf cached = framed.get(index);
+
+    if (cached == null) {
+      cached = findSharedBuffer(variant, packetRegistry, protocolVersion);
+    }
+
+    if (cached == null) {
+      final ByteBuf byteBuf = Unpooled.buffer();
+      try {
+        if (variant == FRAMED) {
+          final ByteBuf payload = getPayload(protocolVersion);
+          final int packetId = packetRegistry.getProtocolRegistry(CLIENTBOUND, protocolVersion)
+            .getPacketId(originalPacket);
+          writeVarInt(byteBuf, packetId);
+          byteBuf.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+        } else {
+          final ByteBuf source = getCachedBuffer(FRAMED, packetRegistry, protocolVersion).duplicate();
+          if (variant == UNCOMPRESSED) {
+            // A threshold that is larger than the packet ensures that the packet is not compressed
+            compress(null, source, byteBuf, Integer.MAX_VALUE);
+          } else {
+            // We only compress this packet once, so we might as well use the best compression
+            final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+              compress(deflater, source, byteBuf, 0);
+            } finally {
+              deflater.end();
+            }
+          }
+        }
+        cached = toCachedBuffer(byteBuf);
+      } finally {
+        byteBuf.release();
+      }
+      // Another thread might have been faster, so make sure we always use the same buffer
+      if (!framed.compareAndSet(index, null, cached)) {
+        cached = framed.get(index);
+      }
+    }
+    return cached;
+  }
+
+  /**
+   * Versions with identical payloads and packet IDs can share the same encoded buffers,
+   * which matters most for the compressed variant, since compressing large packets is expensive.
+   *
+   * @return Buffer of another protocol version that is identical to the requested one or null if there is none
+   */
+  private @Nullable ByteBuf findSharedBuffer(final int variant,
+                                   final @NotNull FallbackPacketRegistry packetRegistry,
+                                   final @NotNull ProtocolVersion protocolVersion) {
+    final ByteBuf payload = getPayload(protocolVersion);
+    final int packetId = packetRegistry.getProtocolRegistry(CLIENTBOUND, protocolVersion).getPacketId(originalPacket);
+    final int offset = (variant * REGISTRIES + packetRegistry.ordinal()) * VERSIONS;
+    for (final ProtocolVersion other : ID_TO_PROTOCOL_CONSTANT.values()) {
+      // Payloads are deduplicated, so we can compare them by identity
+      if (payloads[other.ordinal()] != payload) {
+        continue;
+      }
+      final ByteBuf cached = framed.get(offset + other.ordinal());
+      if (cached != null
+        && packetRegistry.getProtocolRegistry(CLIENTBOUND, other).getPacketId(originalPacket) == packetId) {
+        return cached;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void encode(final @NotNull ByteBuf byteBuf,
+                     final @NotNull ProtocolVersion protocolVersion) throws Exception {
+    final ByteBuf payload = getPayload(protocolVersion);
+    byteBuf.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
   }
 
   @Override
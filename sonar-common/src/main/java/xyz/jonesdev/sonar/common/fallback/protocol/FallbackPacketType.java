@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package xyz.jonesdev.sonar.common.fallback.protocol;
+
+import lombok.experimental.UtilityClass;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns a dense numeric type ID to every packet class, so the packet registry
+ * can use plain arrays instead of maps for looking up packet IDs.
+ * IDs are assigned in the order the classes are first seen, which is
+ * the order in which they are registered in {@link FallbackPacketRegistry}.
+ */
+@UtilityClass
+public class FallbackPacketType {
+  private final AtomicInteger COUNTER = new AtomicInteger();
+  private final ClassValue<Integer> TYPE_IDS = new ClassValue<Integer>() {
+    @Override
+    protected Integer computeValue(final Class<?> type) {
+      return COUNTER.getAndIncrement();
+    }
+  };
+
+  public int getTypeId(final @NotNull Class<? extends FallbackPacket> clazz) {
+    return TYPE_IDS.get(clazz);
+  }
+
+  public int getTypeId(final @NotNull FallbackPacket packet) {
+    return TYPE_IDS.get(packet.getClass());
+  }
+}
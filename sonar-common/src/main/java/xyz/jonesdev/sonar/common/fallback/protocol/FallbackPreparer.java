@@ -17,11 +17,14 @@
 
 package xyz.jonesdev.sonar.common.fallback.protocol;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import lombok.experimental.UtilityClass;
 import net.kyori.adventure.text.minimessage.MiniMessage;
 import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
 import xyz.jonesdev.sonar.api.Sonar;
 import xyz.jonesdev.sonar.api.config.SonarConfiguration;
+import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
 import xyz.jonesdev.sonar.common.fallback.protocol.block.BlockType;
 import xyz.jonesdev.sonar.common.fallback.protocol.block.BlockUpdate;
 import xyz.jonesdev.sonar.common.fallback.protocol.captcha.CaptchaPreparer;
@@ -35,6 +38,8 @@
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 
+import static xyz.jonesdev.sonar.common.util.ProtocolUtil.writeVarInt;
+
 @UtilityClass
 public class FallbackPreparer {
 
@@ -83,6 +88,8 @@ public class FallbackPreparer {
   public FallbackPacket protocolBlacklisted;
   public FallbackPacket invalidUsername;
   public FallbackPacket tooManyOnlinePerIP;
+  // Blacklist disconnect including its frame length; can be written to channels without any pipeline
+  public ByteBuf blacklistedFrame;
 
   // Vehicle
   public FallbackPacket removeEntities;
@@ -169,6 +176,15 @@ public void prepare() {
     invalidUsername = new FallbackPacketSnapshot(DisconnectPacket.create(Sonar.get().getConfig().getVerification().getInvalidUsername(), true));
     tooManyOnlinePerIP = new FallbackPacketSnapshot(DisconnectPacket.create(Sonar.get().getConfig().getTooManyOnlinePerIp(), true));
 
+    // The disconnect packet looks the same for every protocol version during login,
+    // so we can send it to new connections before we even know their protocol version.
+    final ByteBuf blacklistedPacket = ((FallbackPacketSnapshot) blacklisted)
+      .getFramedBuffer(FallbackPacketRegistry.LOGIN, ProtocolVersion.LATEST_VERSION);
+    final ByteBuf frame = Unpooled.buffer(blacklistedPacket.readableBytes() + 5);
+    writeVarInt(frame, blacklistedPacket.readableBytes());
+    frame.writeBytes(blacklistedPacket);
+    blacklistedFrame = Unpooled.unreleasableBuffer(frame.asReadOnly());
+
     // Prepare transfer packet
     if (Sonar.get().getConfig().getGeneralConfig().getBoolean("verification.transfer.enabled")) {
       transferToOrigin = new FallbackPacketSnapshot(new TransferPacket(
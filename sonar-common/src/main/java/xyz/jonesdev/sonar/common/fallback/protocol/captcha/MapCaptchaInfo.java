@@ -21,6 +21,7 @@
 import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.fallback.FallbackUser;
 import xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacket;
+import xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketSnapshot;
 import xyz.jonesdev.sonar.common.fallback.protocol.packets.play.MapDataPacket;
 
 import static xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion.MINECRAFT_1_8;
@@ -47,7 +48,9 @@ public MapCaptchaInfo(final @NotNull String answer, final int @NotNull [] buffer
     }
 
     // Prepare 1.8+ map data
-    this.modern = new MapDataPacket(buffer, 0, 0);
+    // This is by far the largest packet we send, so we cache the encoded bytes.
+    // 1.7 clients receive the legacy packets instead, so we don't need to cache those versions.
+    this.modern = new FallbackPacketSnapshot(new MapDataPacket(buffer, 0, 0), MINECRAFT_1_8);
   }
 
   public void delayedWrite(final @NotNull FallbackUser user) {
@@ -20,8 +20,13 @@
 import lombok.experimental.UtilityClass;
 import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.fallback.FallbackAdmissionController;
+import xyz.jonesdev.sonar.api.fallback.FallbackQueue;
+import xyz.jonesdev.sonar.api.fallback.FallbackSourceSketch;
 import xyz.jonesdev.sonar.common.statistics.CachedBandwidthStatistics;
 
+import java.io.File;
+import java.nio.file.Path;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -46,7 +51,7 @@ public void start() {
       // Make sure to clean up the cached statistics
       // since we don't want to display wrong values.
       Sonar.get().getStatistics().cleanUpCache();
-      Sonar.get().getFallback().getRatelimiter().getFailCountCache().cleanUp();
+      Sonar.get().getFallback().getRatelimiter().cleanUp();
       Sonar.get().getFallback().getBlacklist().cleanUp();
       // Update the attack tracker
       Sonar.get().getAttackTracker().checkIfUnderAttack();
@@ -55,10 +60,22 @@ public void start() {
     }, 0L, 250L, TimeUnit.MILLISECONDS);
 
     FALLBACK_QUEUE.scheduleAtFixedRate(() -> Sonar.get().getFallback().getQueue().poll(),
-      1L, 1L, TimeUnit.SECONDS);
+      FallbackQueue.POLL_INTERVAL, FallbackQueue.POLL_INTERVAL, TimeUnit.MILLISECONDS);
 
     STATISTICS.scheduleAtFixedRate(CachedBandwidthStatistics::reset,
       0L, 1L, TimeUnit.SECONDS);
+
+    // Adjust the number of queue polls to the load of the server
+    STATISTICS.scheduleAtFixedRate(() -> Sonar.get().getFallback().getAdmission().update(),
+      FallbackAdmissionController.UPDATE_INTERVAL, FallbackAdmissionController.UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+
+    // Let the connection counts of all sources decay, so they only reflect recent connections
+    STATISTICS.scheduleAtFixedRate(() -> Sonar.get().getFallback().getSources().decay(),
+      FallbackSourceSketch.DECAY_INTERVAL, FallbackSourceSketch.DECAY_INTERVAL, TimeUnit.MILLISECONDS);
+
+    // Take a snapshot of the blacklist every minute, so it even survives crashes
+    STATISTICS.scheduleAtFixedRate(SonarServiceManager::saveBlacklist,
+      1L, 1L, TimeUnit.MINUTES);
   }
 
   public void stop() {
@@ -66,4 +83,27 @@ public void stop() {
     FALLBACK_QUEUE.shutdown();
     STATISTICS.shutdown();
   }
+
+  private @NotNull Path getBlacklistFile() {
+    return new File(Sonar.get().getConfig().getPluginFolder(), "blacklist.bin").toPath();
+  }
+
+  public synchronized void loadBlacklist() {
+    try {
+      final int loaded = Sonar.get().getFallback().getBlacklist().load(getBlacklistFile());
+      if (loaded > 0) {
+        Sonar.get().getLogger().info("Restored {} blacklisted IP address(es) from the last session.", loaded);
+      }
+    } catch (Exception exception) {
+      Sonar.get().getLogger().error("Could not load blacklist: {}", exception);
+    }
+  }
+
+  public synchronized void saveBlacklist() {
+    try {
+      Sonar.get().getFallback().getBlacklist().save(getBlacklistFile());
+    } catch (Exception exception) {
+      Sonar.get().getLogger().error("Could not save blacklist: {}", exception);
+    }
+  }
 }
@@ -21,9 +21,11 @@
 import com.github.benmanes.caffeine.cache.Caffeine;
 import org.jetbrains.annotations.ApiStatus;
 import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.fallback.FallbackSourceSketch;
 import xyz.jonesdev.sonar.api.statistics.SonarStatistics;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public final class GlobalSonarStatistics implements SonarStatistics {
@@ -157,4 +159,14 @@ public long getCurrentBlacklistSize() {
   public long getTotalBlacklistSize() {
     return totalBlacklistedPlayers;
   }
+
+  @Override
+  public List<FallbackSourceSketch.Source> getTopConnectingAddresses() {
+    return Sonar.get().getFallback().getSources().getTopAddresses();
+  }
+
+  @Override
+  public List<FallbackSourceSketch.Source> getTopConnectingSubnets() {
+    return Sonar.get().getFallback().getSources().getTopSubnets();
+  }
 }
@@ -24,9 +24,11 @@
 import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.Sonar;
 import xyz.jonesdev.sonar.api.command.CommandInvocation;
+import xyz.jonesdev.sonar.api.command.InvocationSource;
 import xyz.jonesdev.sonar.api.command.subcommand.Subcommand;
 import xyz.jonesdev.sonar.api.command.subcommand.SubcommandInfo;
 
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
@@ -41,41 +43,48 @@ protected void execute(final @NotNull CommandInvocation invocation) {
     switch (invocation.getRawArguments()[1].toLowerCase()) {
       case "add": {
         if (invocation.getRawArguments().length <= 2) {
-          incorrectUsage(invocation.getSource(), "blacklist add <IP address>");
+          incorrectUsage(invocation.getSource(), "blacklist add <IP address[/prefix length]>");
           return;
         }
 
-        final String rawAddress = validateIP(invocation.getSource(), invocation.getRawArguments()[2]);
+        // Subnets can be specified using the CIDR notation (e.g. 192.168.0.0/24)
+        final String rawSubnet = invocation.getRawArguments()[2];
+        final int slashIndex = rawSubnet.indexOf('/');
+        final String rawAddress = validateIP(invocation.getSource(),
+          slashIndex == -1 ? rawSubnet : rawSubnet.substring(0, slashIndex));
         // Make sure the given IP address is valid
         if (rawAddress == null) return;
 
         try {
           // Try to resolve the IP address, so we can actually do something with it
           final InetAddress inetAddress = InetAddress.getAllByName(rawAddress)[0];
+          final int prefixLength = parsePrefixLength(invocation.getSource(), inetAddress, rawSubnet, slashIndex);
+          // Make sure the given prefix length is valid
+          if (prefixLength == -1) return;
 
-          // Make sure the IP is not blacklisted already
-          if (Sonar.get().getFallback().getBlacklist().asMap().containsKey(inetAddress)) {
+          // Make sure the IP or subnet is not blacklisted already
+          if (Sonar.get().getFallback().getBlacklist().containsKey(inetAddress, prefixLength)) {
             invocation.getSource().sendMessage(MiniMessage.miniMessage().deserialize(
               Sonar.get().getConfig().getMessagesConfig().getString("commands.blacklist.ip-duplicate"),
               Placeholder.component("prefix", Sonar.get().getConfig().getPrefix()),
-              Placeholder.unparsed("ip", rawAddress)));
+              Placeholder.unparsed("ip", rawSubnet)));
             return;
           }
 
           // Display a warning if the IP is verified but being added to the blacklist
-          if (Sonar.get().getVerifiedPlayerController().has(rawAddress)) {
+          if (slashIndex == -1 && Sonar.get().getVerifiedPlayerController().has(rawAddress)) {
             invocation.getSource().sendMessage(MiniMessage.miniMessage().deserialize(
               Sonar.get().getConfig().getMessagesConfig().getString("commands.blacklist.add-warning"),
               Placeholder.component("prefix", Sonar.get().getConfig().getPrefix()),
               Placeholder.unparsed("ip", rawAddress)));
           }
 
-          // Blacklist the given IP address
-          Sonar.get().getFallback().getBlacklist().put(inetAddress, (byte) 0);
+          // Blacklist the given IP address or subnet
+          Sonar.get().getFallback().getBlacklist().put(inetAddress, prefixLength);
           invocation.getSource().sendMessage(MiniMessage.miniMessage().deserialize(
             Sonar.get().getConfig().getMessagesConfig().getString("commands.blacklist.add"),
             Placeholder.component("prefix", Sonar.get().getConfig().getPrefix()),
-            Placeholder.unparsed("ip", rawAddress)));
+            Placeholder.unparsed("ip", rawSubnet)));
         } catch (UnknownHostException exception) {
           invocation.getSource().sendMessage(Component.text(
             "Unexpected error, check console.", NamedTextColor.RED));
@@ -86,32 +95,39 @@ protected void execute(final @NotNull CommandInvocation invocation) {
 
       case "remove": {
         if (invocation.getRawArguments().length <= 2) {
-          incorrectUsage(invocation.getSource(), "blacklist remove <IP address>");
+          incorrectUsage(invocation.getSource(), "blacklist remove <IP address[/prefix length]>");
           return;
         }
 
-        final String rawAddress = validateIP(invocation.getSource(), invocation.getRawArguments()[2]);
+        // Subnets can be specified using the CIDR notation (e.g. 192.168.0.0/24)
+        final String rawSubnet = invocation.getRawArguments()[2];
+        final int slashIndex = rawSubnet.indexOf('/');
+        final String rawAddress = validateIP(invocation.getSource(),
+          slashIndex == -1 ? rawSubnet : rawSubnet.substring(0, slashIndex));
         // Make sure the given IP address is valid
         if (rawAddress == null) return;
 
         try {
           // Try to resolve the IP address, so we can actually do something with it
           final InetAddress inetAddress = InetAddress.getAllByName(rawAddress)[0];
+          final int prefixLength = parsePrefixLength(invocation.getSource(), inetAddress, rawSubnet, slashIndex);
+          // Make sure the given prefix length is valid
+          if (prefixLength == -1) return;
 
-          // Make sure the IP is blacklisted
-          if (!Sonar.get().getFallback().getBlacklist().asMap().containsKey(inetAddress)) {
+          // Make sure the IP or subnet is blacklisted
+          if (!Sonar.get().getFallback().getBlacklist().containsKey(inetAddress, prefixLength)) {
             invocation.getSource().sendMessage(MiniMessage.miniMessage().deserialize(
               Sonar.get().getConfig().getMessagesConfig().getString("commands.blacklist.ip-not-found"),
               Placeholder.component("prefix", Sonar.get().getConfig().getPrefix())));
             return;
           }
 
-          // Invalidate the cache entry of the blacklisted IP address
-          Sonar.get().getFallback().getBlacklist().invalidate(inetAddress);
+          // Remove the blacklisted IP address or subnet
+          Sonar.get().getFallback().getBlacklist().invalidate(inetAddress, prefixLength);
           invocation.getSource().sendMessage(MiniMessage.miniMessage().deserialize(
             Sonar.get().getConfig().getMessagesConfig().getString("commands.blacklist.remove"),
             Placeholder.component("prefix", Sonar.get().getConfig().getPrefix()),
-            Placeholder.unparsed("ip", rawAddress)));
+            Placeholder.unparsed("ip", rawSubnet)));
         } catch (UnknownHostException exception) {
           invocation.getSource().sendMessage(Component.text(
             "Unexpected error, check console.", NamedTextColor.RED));
@@ -155,4 +171,31 @@ protected void execute(final @NotNull CommandInvocation invocation) {
       }
     }
   }
+
+  /**
+   * @return Prefix length of the given subnet or -1 if the prefix length is invalid
+   */
+  private static int parsePrefixLength(final @NotNull InvocationSource source,
+                                       final @NotNull InetAddress inetAddress,
+                                       final @NotNull String rawSubnet,
+                                       final int slashIndex) {
+    final int maximum = inetAddress instanceof Inet4Address ? 32 : 128;
+    // Plain IP addresses are treated like subnets that only contain this IP address
+    if (slashIndex == -1) {
+      return maximum;
+    }
+    int prefixLength;
+    try {
+      prefixLength = Integer.parseInt(rawSubnet.substring(slashIndex + 1));
+    } catch (NumberFormatException exception) {
+      prefixLength = -1;
+    }
+    if (prefixLength < 0 || prefixLength > maximum) {
+      source.sendMessage(MiniMessage.miniMessage().deserialize(
+        Sonar.get().getConfig().getMessagesConfig().getString("commands.invalid-ip-address"),
+        Placeholder.component("prefix", Sonar.get().getConfig().getPrefix())));
+      return -1;
+    }
+    return prefixLength;
+  }
 }
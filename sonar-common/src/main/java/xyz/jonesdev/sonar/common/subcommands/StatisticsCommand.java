@@ -26,15 +26,18 @@
 import xyz.jonesdev.sonar.api.command.CommandInvocation;
 import xyz.jonesdev.sonar.api.command.subcommand.Subcommand;
 import xyz.jonesdev.sonar.api.command.subcommand.SubcommandInfo;
+import xyz.jonesdev.sonar.api.fallback.FallbackSourceSketch;
 import xyz.jonesdev.sonar.common.statistics.CachedBandwidthStatistics;
 
+import java.util.List;
+
 import static xyz.jonesdev.sonar.api.Sonar.DECIMAL_FORMAT;
 import static xyz.jonesdev.sonar.api.jvm.JVMProcessInformation.*;
 
 @SubcommandInfo(
   name = "statistics",
   aliases = {"stats"},
-  arguments = {"network", "memory", "cpu"},
+  arguments = {"network", "memory", "cpu", "top"},
   argumentsRequired = false
 )
 public final class StatisticsCommand extends Subcommand {
@@ -60,6 +63,13 @@ protected void execute(final @NotNull CommandInvocation invocation) {
       Placeholder.unparsed("statistics-type", type)));
     invocation.getSource().sendMessage(Component.empty());
 
+    // The top connection sources are a list of entries rather than a fixed message
+    if (type.equals("top")) {
+      sendTopSources(invocation, "addresses", Sonar.get().getStatistics().getTopConnectingAddresses());
+      sendTopSources(invocation, "subnets", Sonar.get().getStatistics().getTopConnectingSubnets());
+      return;
+    }
+
     TagResolver.@NotNull Single[] placeholders = null;
 
     switch (type) {
@@ -74,7 +84,7 @@ protected void execute(final @NotNull CommandInvocation invocation) {
           Placeholder.unparsed("verified", DECIMAL_FORMAT.format(Sonar.get().getVerifiedPlayerController().estimatedSize())),
           Placeholder.unparsed("verifying", DECIMAL_FORMAT.format(Sonar.get().getFallback().getConnected().size())),
           Placeholder.unparsed("blacklisted", DECIMAL_FORMAT.format(Sonar.get().getFallback().getBlacklist().estimatedSize())),
-          Placeholder.unparsed("queued", DECIMAL_FORMAT.format(Sonar.get().getFallback().getQueue().getPlayers().size())),
+          Placeholder.unparsed("queued", DECIMAL_FORMAT.format(Sonar.get().getFallback().getQueue().size())),
           Placeholder.unparsed("server-uptime", String.format("%dd %dh %dm %ds", days, hours, minutes, seconds % 60L)),
           Placeholder.unparsed("total-joins", DECIMAL_FORMAT.format(Sonar.get().getStatistics().getTotalPlayersJoined())),
           Placeholder.unparsed("total-attempts", DECIMAL_FORMAT.format(Sonar.get().getStatistics().getTotalAttemptedVerifications())),
@@ -122,4 +132,27 @@ protected void execute(final @NotNull CommandInvocation invocation) {
       invocation.getSource().sendMessage(MiniMessage.miniMessage().deserialize(msg, placeholders));
     }
   }
+
+  private static void sendTopSources(final @NotNull CommandInvocation invocation,
+                                     final @NotNull String category,
+                                     final @NotNull List<FallbackSourceSketch.Source> sources) {
+    invocation.getSource().sendMessage(MiniMessage.miniMessage().deserialize(
+      Sonar.get().getConfig().getMessagesConfig().getString("commands.statistics.top." + category),
+      Placeholder.component("prefix", Sonar.get().getConfig().getPrefix())));
+
+    if (sources.isEmpty()) {
+      invocation.getSource().sendMessage(MiniMessage.miniMessage().deserialize(
+        Sonar.get().getConfig().getMessagesConfig().getString("commands.statistics.top.empty"),
+        Placeholder.component("prefix", Sonar.get().getConfig().getPrefix())));
+      return;
+    }
+
+    for (final FallbackSourceSketch.Source source : sources) {
+      invocation.getSource().sendMessage(MiniMessage.miniMessage().deserialize(
+        Sonar.get().getConfig().getMessagesConfig().getString("commands.statistics.top.entry"),
+        Placeholder.component("prefix", Sonar.get().getConfig().getPrefix()),
+        Placeholder.unparsed("source", source.getAddress()),
+        Placeholder.unparsed("connections", DECIMAL_FORMAT.format(source.getConnections()))));
+    }
+  }
 }
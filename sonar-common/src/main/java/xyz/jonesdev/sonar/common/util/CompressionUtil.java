@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2024 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package xyz.jonesdev.sonar.common.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.CorruptedFrameException;
+import lombok.experimental.UtilityClass;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static xyz.jonesdev.sonar.common.util.ProtocolUtil.writeVarInt;
+
+// Mostly taken from
+// https://github.com/PaperMC/Velocity/blob/dev/3.0.0/proxy/src/main/java/com/velocitypowered/proxy/protocol/netty/MinecraftCompressorAndLengthEncoder.java
+@UtilityClass
+public class CompressionUtil {
+  // None of the packets the client sends during the verification come anywhere close to this size
+  public final int MAXIMUM_UNCOMPRESSED_SIZE = 0xFFFF;
+
+  /**
+   * Writes the packet data in the compressed packet format (without the length prefix).
+   * The data is only compressed if it exceeds the compression threshold.
+   *
+   * @param deflater    Deflater to use; may only be null if the data is smaller than the threshold
+   * @param source      Uncompressed packet data (packet ID and payload)
+   * @param destination Buffer to write the data length and the (compressed) data to
+   * @param threshold   Compression threshold of the connection
+   */
+  public void compress(final @Nullable Deflater deflater,
+                       final @NotNull ByteBuf source,
+                       final @NotNull ByteBuf destination,
+                       final int threshold) {
+    final int uncompressedSize = source.readableBytes();
+
+    // The client doesn't accept compressed packets that are smaller than the threshold
+    if (uncompressedSize < threshold) {
+      writeVarInt(destination, 0);
+      destination.writeBytes(source);
+      return;
+    }
+
+    if (deflater == null) {
+      throw new IllegalStateException("Cannot compress packet without deflater");
+    }
+
+    writeVarInt(destination, uncompressedSize);
+    deflater.setInput(source.nioBuffer());
+    deflater.finish();
+    try {
+      while (!deflater.finished()) {
+        destination.ensureWritable(8192);
+        final ByteBuffer out = destination.nioBuffer(destination.writerIndex(), destination.writableBytes());
+        destination.writerIndex(destination.writerIndex() + deflater.deflate(out));
+      }
+      source.skipBytes(uncompressedSize);
+    } finally {
+      deflater.reset();
+    }
+  }
+
+  /**
+   * @param inflater         Inflater to use
+   * @param source           Compressed packet data (without the data length)
+   * @param uncompressedSize Data length sent by the client
+   * @param allocator        Allocator of the channel
+   * @return Buffer containing the uncompressed packet data
+   */
+  public @NotNull ByteBuf decompress(final @NotNull Inflater inflater,
+                                     final @NotNull ByteBuf source,
+                                     final int uncompressedSize,
+                                     final @NotNull ByteBufAllocator allocator) throws DataFormatException {
+    final ByteBuf destination = allocator.heapBuffer(uncompressedSize, uncompressedSize);
+    try {
+      inflater.setInput(source.nioBuffer());
+      final ByteBuffer out = destination.nioBuffer(0, uncompressedSize);
+      while (!inflater.finished() && out.hasRemaining()) {
+        // Stop if the inflater cannot make any more progress
+        if (inflater.inflate(out) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+      }
+      // Make sure the client didn't lie about the size of the packet
+      if (!inflater.finished() || out.hasRemaining()) {
+        throw new CorruptedFrameException("Badly compressed packet");
+      }
+      destination.writerIndex(uncompressedSize);
+      source.skipBytes(source.readableBytes());
+      return destination;
+    } catch (Throwable throwable) {
+      destination.release();
+      throw throwable;
+    } finally {
+      inflater.reset();
+    }
+  }
+}
@@ -17,6 +17,7 @@
 
 package xyz.jonesdev.sonar.velocity.fallback;
 
+import com.velocitypowered.proxy.VelocityServer;
 import com.velocitypowered.proxy.connection.MinecraftConnection;
 import com.velocitypowered.proxy.protocol.packet.HandshakePacket;
 import com.velocitypowered.proxy.protocol.packet.ServerLoginPacket;
@@ -24,6 +25,7 @@
 import io.netty.channel.ChannelHandlerContext;
 import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.common.fallback.FallbackChannelHandlerAdapter;
+import xyz.jonesdev.sonar.velocity.SonarVelocity;
 
 import java.net.InetSocketAddress;
 
@@ -35,23 +37,26 @@ public FallbackVelocityChannelHandler(final @NotNull Channel channel) {
     super(channel);
   }
 
+  @Override
+  protected int getCompressionThreshold() {
+    final VelocityServer server = (VelocityServer) SonarVelocity.INSTANCE.getPlugin().getServer();
+    return server.getConfiguration().getCompressionThreshold();
+  }
+
   @Override
   public void channelRead(final @NotNull ChannelHandlerContext ctx, final Object msg) throws Exception {
-    // TODO: put this into a separate handler
     // Intercept any handshake packet by the client
-    if (listenForPackets) {
-      if (msg instanceof HandshakePacket handshake) {
-        handleHandshake(handshake.getServerAddress(), handshake.getProtocolVersion().getProtocol());
-      }
-      // Intercept any server login packet by the client
-      else if (msg instanceof ServerLoginPacket serverLogin) {
-        // Make sure to use the potentially modified, original IP
-        final MinecraftConnection minecraftConnection = (MinecraftConnection) channel.pipeline().get(HANDLER);
-        final InetSocketAddress socketAddress = (InetSocketAddress) minecraftConnection.getRemoteAddress();
-        handleLogin(ctx, serverLogin, serverLogin.getUsername(), socketAddress,
-          MINECRAFT_ENCODER, MINECRAFT_DECODER, READ_TIMEOUT, HANDLER);
-        return;
-      }
+    if (msg instanceof HandshakePacket handshake) {
+      handleHandshake(handshake.getServerAddress(), handshake.getProtocolVersion().getProtocol());
+    }
+    // Intercept any server login packet by the client
+    else if (msg instanceof ServerLoginPacket serverLogin) {
+      // Make sure to use the potentially modified, original IP
+      final MinecraftConnection minecraftConnection = (MinecraftConnection) channel.pipeline().get(HANDLER);
+      final InetSocketAddress socketAddress = (InetSocketAddress) minecraftConnection.getRemoteAddress();
+      handleLogin(ctx, serverLogin, serverLogin.getUsername(), socketAddress,
+        MINECRAFT_ENCODER, MINECRAFT_DECODER, READ_TIMEOUT, HANDLER);
+      return;
     }
     // Make sure to let the server handle the rest
     ctx.fireChannelRead(msg);